@@ -0,0 +1,154 @@
+package com.xoba.util;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * counter which many threads can increment at once, without locking, instead
+ * of each keeping its own {@link LongCounter} to be merged afterwards.
+ *
+ * each key has a {@link LongAdder}, whose cells spread out threads
+ * incrementing the same key; after its first increment, a key costs a single
+ * lookup and no allocation
+ *
+ */
+public class ConcurrentLongCounter<T> implements Iterable<Map.Entry<T, Long>> {
+
+	// stands in for a null key, which the map can't hold
+	private static final Object NULL_KEY = new Object();
+
+	private static final Function<Object, LongAdder> NEW_ADDER = new Function<Object, LongAdder>() {
+		public LongAdder apply(Object key) {
+			return new LongAdder();
+		}
+	};
+
+	private final ConcurrentMap<Object, LongAdder> map;
+
+	public ConcurrentLongCounter() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of distinct keys
+	 */
+	public ConcurrentLongCounter(int expectedSize) {
+		this.map = new ConcurrentHashMap<Object, LongAdder>(expectedSize);
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T unmask(Object k) {
+		return k == NULL_KEY ? null : (T) k;
+	}
+
+	public void inc(T key) {
+		inc(key, 1);
+	}
+
+	public void inc(T key, long x) {
+		Object k = mask(key);
+		LongAdder a = map.get(k);
+		if (a == null) {
+			a = map.computeIfAbsent(k, NEW_ADDER);
+		}
+		a.add(x);
+	}
+
+	public void accumulate(LongCounter<T> o) {
+		for (Map.Entry<T, Long> e : o) {
+			inc(e.getKey(), e.getValue());
+		}
+	}
+
+	public long get(T key) {
+		LongAdder a = map.get(mask(key));
+		return a == null ? 0 : a.sum();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public long sum() {
+		long out = 0;
+		for (LongAdder a : map.values()) {
+			out += a.sum();
+		}
+		return out;
+	}
+
+	public Set<T> keySet() {
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				final Iterator<Object> it = map.keySet().iterator();
+				return new Iterator<T>() {
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					public T next() {
+						return unmask(it.next());
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return map.containsKey(mask(o));
+			}
+
+			@Override
+			public int size() {
+				return map.size();
+			}
+		};
+	}
+
+	/**
+	 * a copy of the counts, taken while increments may be continuing; counts
+	 * are approximate while increments are in flight, and exact once they've
+	 * stopped
+	 *
+	 * @return
+	 */
+	public LongCounter<T> snapshot() {
+		LongCounter<T> out = new LongCounter<T>();
+		for (Map.Entry<Object, LongAdder> e : map.entrySet()) {
+			out.inc(ConcurrentLongCounter.<T> unmask(e.getKey()), e.getValue().sum());
+		}
+		return out;
+	}
+
+	/**
+	 * iterates over a {@link #snapshot()}
+	 */
+	public Iterator<Map.Entry<T, Long>> iterator() {
+		return snapshot().iterator();
+	}
+
+	public Map<T, Long> getSorted(boolean ascending) {
+		return snapshot().getSorted(ascending);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+}
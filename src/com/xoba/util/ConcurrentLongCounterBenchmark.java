@@ -0,0 +1,146 @@
+package com.xoba.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * throughput of counting one skewed stream of keys with several threads,
+ * either into one {@link ConcurrentLongCounter}, or into a LongCounter per
+ * thread merged at the end, at increasing thread counts
+ *
+ */
+public class ConcurrentLongCounterBenchmark {
+
+	private static volatile long sink;
+
+	private static interface IParallelCount {
+
+		public String getName();
+
+		/**
+		 * counts its share of the stream on the given thread
+		 */
+		public void count(String[] stream, int from, int to, int thread);
+
+		/**
+		 * @return a checksum of the merged counts
+		 */
+		public long finish();
+
+	}
+
+	private static IParallelCount createConcurrent() {
+		final ConcurrentLongCounter<String> c = new ConcurrentLongCounter<String>();
+		return new IParallelCount() {
+			public String getName() {
+				return "ConcurrentLongCounter";
+			}
+
+			public void count(String[] stream, int from, int to, int thread) {
+				for (int i = from; i < to; i++) {
+					c.inc(stream[i]);
+				}
+			}
+
+			public long finish() {
+				LongCounter<String> s = c.snapshot();
+				return s.size() + s.sum();
+			}
+		};
+	}
+
+	private static IParallelCount createMerged(final int threads) {
+		final List<LongCounter<String>> counters = new ArrayList<LongCounter<String>>();
+		for (int i = 0; i < threads; i++) {
+			counters.add(new LongCounter<String>());
+		}
+		return new IParallelCount() {
+			public String getName() {
+				return "LongCounter per thread";
+			}
+
+			public void count(String[] stream, int from, int to, int thread) {
+				LongCounter<String> c = counters.get(thread);
+				for (int i = from; i < to; i++) {
+					c.inc(stream[i]);
+				}
+			}
+
+			public long finish() {
+				LongCounter<String> merged = new LongCounter<String>();
+				for (LongCounter<String> c : counters) {
+					merged.accumulate(c);
+				}
+				return merged.size() + merged.sum();
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+		int cardinality = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(32, Runtime.getRuntime()
+				.availableProcessors());
+
+		String[] stream = createStream(length, cardinality, new Random(42));
+
+		System.out.printf("%,d increments over %,d distinct keys, %d processors%n", length, cardinality, Runtime
+				.getRuntime().availableProcessors());
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			// once to warm up
+			run(createConcurrent(), stream, threads);
+			run(createMerged(threads), stream, threads);
+			for (IParallelCount c : new IParallelCount[] { createConcurrent(), createMerged(threads) }) {
+				long elapsed = run(c, stream, threads);
+				System.out.printf("%3d threads: %-25s %,8.1f M inc/s%n", threads, c.getName(), 1000.0 * length / elapsed);
+			}
+		}
+	}
+
+	/**
+	 * @return nanos, including the merge
+	 */
+	private static long run(final IParallelCount c, final String[] stream, int threads) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		int share = (stream.length + threads - 1) / threads;
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			final int from = Math.min(stream.length, i * share);
+			final int to = Math.min(stream.length, from + share);
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						c.count(stream, from, to, thread);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long t0 = System.nanoTime();
+		start.countDown();
+		done.await();
+		sink += c.finish();
+		return System.nanoTime() - t0;
+	}
+
+	private static String[] createStream(int length, int cardinality, Random random) {
+		String[] out = new String[length];
+		double logMax = Math.log(cardinality);
+		for (int i = 0; i < length; i++) {
+			int k = (int) Math.exp(random.nextDouble() * logMax);
+			out[i] = new String("key-" + k);
+		}
+		return out;
+	}
+
+}
@@ -4,6 +4,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -52,6 +53,10 @@ public class DoubleCounter<T> implements Iterable<Map.Entry<T, Double>> {
 		this.immutable = true;
 	}
 
+	public boolean isImmutable() {
+		return immutable;
+	}
+
 	public double get(T key) {
 		Double out = map.get(key);
 		if (out == null) {
@@ -73,6 +78,52 @@ public class DoubleCounter<T> implements Iterable<Map.Entry<T, Double>> {
 		return MraUtils.sortByComparableValues(map, ascending);
 	}
 
+	/**
+	 * the k keys with the highest values, highest first unless ascending; of
+	 * keys with equal values, those met first in iteration are preferred.
+	 * takes O(n log k), without sorting everything as
+	 * {@link #getSorted(boolean)} does
+	 * 
+	 * @param k
+	 * @param ascending
+	 * @return
+	 */
+	public Map<T, Double> top(int k, boolean ascending) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, map.size());
+		for (Map.Entry<T, Double> e : map.entrySet()) {
+			heap.offer(PrimitiveSort.sortableBits(e.getValue()), e.getKey());
+		}
+		return toMap(heap, ascending, false);
+	}
+
+	/**
+	 * the k keys with the lowest values, lowest first
+	 * 
+	 * @param k
+	 * @return
+	 */
+	public Map<T, Double> bottom(int k) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, map.size());
+		for (Map.Entry<T, Double> e : map.entrySet()) {
+			// complemented, so that the lowest are the largest
+			heap.offer(~PrimitiveSort.sortableBits(e.getValue()), e.getKey());
+		}
+		return toMap(heap, false, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Map<T, Double> toMap(PrimitiveSort.BoundedHeap heap, boolean reverse, boolean complemented) {
+		heap.sort();
+		Map<T, Double> out = new LinkedHashMap<T, Double>();
+		int n = heap.size();
+		for (int j = 0; j < n; j++) {
+			int i = reverse ? n - 1 - j : j;
+			long key = heap.getKey(i);
+			out.put((T) heap.getObject(i), PrimitiveSort.fromSortableBits(complemented ? ~key : key));
+		}
+		return out;
+	}
+
 	@Override
 	public Iterator<Map.Entry<T, Double>> iterator() {
 		return Collections.unmodifiableMap(map).entrySet().iterator();
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -61,6 +62,10 @@ public class LongCounter<T> implements Iterable<Map.Entry<T, Long>>, Serializabl
 		this.immutable = true;
 	}
 
+	public boolean isImmutable() {
+		return immutable;
+	}
+
 	public long get(T key) {
 		Long out = map.get(key);
 		if (out == null) {
@@ -82,6 +87,52 @@ public class LongCounter<T> implements Iterable<Map.Entry<T, Long>>, Serializabl
 		return MraUtils.sortByComparableValues(map, ascending);
 	}
 
+	/**
+	 * the k keys with the highest counts, highest first unless ascending; of
+	 * keys with equal counts, those met first in iteration are preferred.
+	 * takes O(n log k), without sorting everything as
+	 * {@link #getSorted(boolean)} does
+	 * 
+	 * @param k
+	 * @param ascending
+	 * @return
+	 */
+	public Map<T, Long> top(int k, boolean ascending) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, map.size());
+		for (Map.Entry<T, Long> e : map.entrySet()) {
+			heap.offer(e.getValue(), e.getKey());
+		}
+		return toMap(heap, ascending, false);
+	}
+
+	/**
+	 * the k keys with the lowest counts, lowest first
+	 * 
+	 * @param k
+	 * @return
+	 */
+	public Map<T, Long> bottom(int k) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, map.size());
+		for (Map.Entry<T, Long> e : map.entrySet()) {
+			// complemented, so that the lowest are the largest
+			heap.offer(~e.getValue(), e.getKey());
+		}
+		return toMap(heap, false, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Map<T, Long> toMap(PrimitiveSort.BoundedHeap heap, boolean reverse, boolean complemented) {
+		heap.sort();
+		Map<T, Long> out = new LinkedHashMap<T, Long>();
+		int n = heap.size();
+		for (int j = 0; j < n; j++) {
+			int i = reverse ? n - 1 - j : j;
+			long key = heap.getKey(i);
+			out.put((T) heap.getObject(i), complemented ? ~key : key);
+		}
+		return out;
+	}
+
 	public Map<T, Long> getMap() {
 		return new HashMap<T, Long>(map);
 	}
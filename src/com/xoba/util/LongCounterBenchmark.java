@@ -0,0 +1,101 @@
+package com.xoba.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * increment throughput of the counter implementations, over skewed streams of
+ * string keys like those from log aggregation, at a few key cardinalities
+ *
+ */
+public class LongCounterBenchmark {
+
+	private static volatile long sink;
+
+	private static interface ICounterTest {
+
+		public String getName();
+
+		/**
+		 * counts all the keys into a new counter
+		 *
+		 * @return some checksum of the result
+		 */
+		public long count(String[] stream);
+
+	}
+
+	private static List<ICounterTest> createTests() {
+		List<ICounterTest> out = new ArrayList<ICounterTest>();
+		out.add(new ICounterTest() {
+			public String getName() {
+				return "LongCounter";
+			}
+
+			public long count(String[] stream) {
+				LongCounter<String> c = new LongCounter<String>();
+				for (String s : stream) {
+					c.inc(s);
+				}
+				return c.size() + c.sum();
+			}
+		});
+		out.add(new ICounterTest() {
+			public String getName() {
+				return "OpenLongCounter";
+			}
+
+			public long count(String[] stream) {
+				OpenLongCounter<String> c = new OpenLongCounter<String>();
+				for (String s : stream) {
+					c.inc(s);
+				}
+				return c.size() + c.sum();
+			}
+		});
+		return out;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		List<ICounterTest> tests = createTests();
+
+		for (int cardinality : new int[] { 1000, 100000, 1000000 }) {
+			String[] stream = createStream(length, cardinality, new Random(42));
+			System.out.printf("%,d increments over %,d distinct keys%n", length, cardinality);
+			for (ICounterTest t : tests) {
+				// first rounds are warm-up
+				long best = Long.MAX_VALUE;
+				for (int i = 0; i < rounds; i++) {
+					long t0 = System.nanoTime();
+					sink += t.count(stream);
+					long elapsed = System.nanoTime() - t0;
+					if (i > 0) {
+						best = Math.min(best, elapsed);
+					}
+				}
+				System.out.printf("    %-25s %6.1f ns/inc; %,8.1f M inc/s%n", t.getName(), (double) best / length,
+						1000.0 * length / best);
+			}
+		}
+	}
+
+	/**
+	 * roughly zipfian, with every key a distinct string instance, as if freshly
+	 * parsed
+	 */
+	private static String[] createStream(int length, int cardinality, Random random) {
+		String[] out = new String[length];
+		double logMax = Math.log(cardinality);
+		for (int i = 0; i < length; i++) {
+			int k = (int) Math.exp(random.nextDouble() * logMax);
+			out[i] = new String("key-" + k);
+		}
+		return out;
+	}
+
+}
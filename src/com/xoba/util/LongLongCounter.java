@@ -0,0 +1,388 @@
+package com.xoba.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * counter keyed by longs, such as IDs, without boxing either keys or counts.
+ * keys and counts are kept in parallel arrays, probed linearly, costing 16
+ * bytes per slot with slots at most three quarters full; so tens of millions of
+ * keys fit in well under a gigabyte, where a {@link LongCounter} would need
+ * several
+ *
+ */
+public class LongLongCounter implements Iterable<Map.Entry<Long, Long>>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * for going over the counts without boxing
+	 *
+	 */
+	public static interface IVisitor {
+
+		public void visit(long key, long count);
+
+	}
+
+	private static final int MIN_CAPACITY = 16;
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/**
+	 * most keys that can be counted
+	 */
+	public static final int MAX_SIZE = MAX_CAPACITY / 4 * 3;
+
+	// zero marks an empty slot, so the zero key is kept aside
+	private transient long[] keys;
+
+	private transient long[] values;
+
+	private transient boolean hasZero;
+
+	private transient long zeroValue;
+
+	// not counting the zero key
+	private transient int used;
+
+	// table length is 2^bits
+	private transient int bits;
+
+	private boolean immutable = false;
+
+	public LongLongCounter() {
+		this(MIN_CAPACITY / 2);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of keys that can be counted before the table grows
+	 */
+	public LongLongCounter(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int size) {
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("can't count " + size + " keys");
+		}
+		int capacity = MIN_CAPACITY;
+		while (capacity / 4 * 3 < size) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		bits = Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private int slot(long key) {
+		// fibonacci hashing, so that sequential IDs spread out
+		return (int) ((key * 0x9e3779b97f4a7c15L) >>> (64 - bits));
+	}
+
+	/**
+	 * @return slot holding the non-zero key, or -1 if absent
+	 */
+	private int find(long key) {
+		int m = keys.length - 1;
+		for (int i = slot(key);; i = (i + 1) & m) {
+			long k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == 0) {
+				return -1;
+			}
+		}
+	}
+
+	public void accumulate(LongLongCounter o) {
+		if (o.hasZero) {
+			inc(0, o.zeroValue);
+		}
+		for (int i = 0; i < o.keys.length; i++) {
+			if (o.keys[i] != 0) {
+				inc(o.keys[i], o.values[i]);
+			}
+		}
+	}
+
+	public void accumulate(LongCounter<Long> o) {
+		for (Map.Entry<Long, Long> e : o) {
+			inc(e.getKey(), e.getValue());
+		}
+	}
+
+	public void inc(long key) {
+		inc(key, 1);
+	}
+
+	public void inc(long key, long x) {
+		if (immutable) {
+			throw new IllegalStateException("immutable");
+		}
+		if (key == 0) {
+			hasZero = true;
+			zeroValue += x;
+			return;
+		}
+		long[] keys = this.keys;
+		int m = keys.length - 1;
+		for (int i = slot(key);; i = (i + 1) & m) {
+			long k = keys[i];
+			if (k == key) {
+				values[i] += x;
+				return;
+			}
+			if (k == 0) {
+				if (used == MAX_SIZE) {
+					throw new IllegalStateException("can't count more than " + MAX_SIZE + " keys");
+				}
+				keys[i] = key;
+				values[i] = x;
+				if (++used > keys.length / 4 * 3) {
+					grow();
+				}
+				return;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		int m = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			long k = oldKeys[j];
+			if (k != 0) {
+				int i = slot(k);
+				while (keys[i] != 0) {
+					i = (i + 1) & m;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public void setImmutable() {
+		this.immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	public long get(long key) {
+		if (key == 0) {
+			return zeroValue;
+		}
+		int i = find(key);
+		return i < 0 ? 0 : values[i];
+	}
+
+	public boolean containsKey(long key) {
+		return key == 0 ? hasZero : find(key) >= 0;
+	}
+
+	/**
+	 * @return the keys, in no particular order
+	 */
+	public long[] keys() {
+		long[] out = new long[size()];
+		int n = 0;
+		if (hasZero) {
+			out[n++] = 0;
+		}
+		for (long k : keys) {
+			if (k != 0) {
+				out[n++] = k;
+			}
+		}
+		return out;
+	}
+
+	public void visit(IVisitor v) {
+		if (hasZero) {
+			v.visit(0, zeroValue);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				v.visit(keys[i], values[i]);
+			}
+		}
+	}
+
+	public Map<Long, Long> getSorted(boolean ascending) {
+		return MraUtils.sortByComparableValues(getMap(), ascending);
+	}
+
+	public Map<Long, Long> getMap() {
+		final Map<Long, Long> out = new HashMap<Long, Long>();
+		visit(new IVisitor() {
+			public void visit(long key, long count) {
+				out.put(key, count);
+			}
+		});
+		return out;
+	}
+
+	public LongCounter<Long> toLongCounter() {
+		final LongCounter<Long> out = new LongCounter<Long>();
+		visit(new IVisitor() {
+			public void visit(long key, long count) {
+				out.inc(key, count);
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * boxes each entry as it's iterated over; {@link #visit(IVisitor)}
+	 * doesn't
+	 */
+	public Iterator<Map.Entry<Long, Long>> iterator() {
+		return new Iterator<Map.Entry<Long, Long>>() {
+
+			// -1 for the zero key
+			private int next = hasZero ? -1 : advance(0);
+
+			private int advance(int i) {
+				while (i < keys.length && keys[i] == 0) {
+					i++;
+				}
+				return i;
+			}
+
+			public boolean hasNext() {
+				return next < keys.length;
+			}
+
+			public Map.Entry<Long, Long> next() {
+				if (next >= keys.length) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<Long, Long> out;
+				if (next < 0) {
+					out = new AbstractMap.SimpleImmutableEntry<Long, Long>(0L, zeroValue);
+				} else {
+					out = new AbstractMap.SimpleImmutableEntry<Long, Long>(keys[next], values[next]);
+				}
+				next = advance(next + 1);
+				return out;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public int size() {
+		return used + (hasZero ? 1 : 0);
+	}
+
+	public long sum() {
+		long out = zeroValue;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				out += values[i];
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * same as the hash code of {@link #getMap()}
+	 */
+	@Override
+	public int hashCode() {
+		int h = hasZero ? Long.hashCode(zeroValue) : 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				h += Long.hashCode(keys[i]) ^ Long.hashCode(values[i]);
+			}
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof LongLongCounter) {
+			LongLongCounter other = (LongLongCounter) obj;
+			if (other.size() != size() || other.hasZero != hasZero || other.zeroValue != zeroValue) {
+				return false;
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0) {
+					int j = other.find(keys[i]);
+					if (j < 0 || other.values[j] != values[i]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder("{");
+		visit(new IVisitor() {
+			public void visit(long key, long count) {
+				if (b.length() > 1) {
+					b.append(", ");
+				}
+				b.append(key).append('=').append(count);
+			}
+		});
+		return b.append('}').toString();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size());
+		if (hasZero) {
+			out.writeLong(0);
+			out.writeLong(zeroValue);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				out.writeLong(keys[i]);
+				out.writeLong(values[i]);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		if (n > MAX_SIZE) {
+			throw new InvalidObjectException("too many keys: " + n);
+		}
+		allocate(capacityFor(n));
+		boolean wasImmutable = immutable;
+		immutable = false;
+		for (int i = 0; i < n; i++) {
+			inc(in.readLong(), in.readLong());
+		}
+		immutable = wasImmutable;
+	}
+
+}
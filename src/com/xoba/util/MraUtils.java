@@ -29,6 +29,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -696,8 +697,17 @@ public class MraUtils {
 		return out;
 	}
 
+	/**
+	 * stable, so entries with equal values keep the map's iteration order.
+	 * when the values are all Longs or all Doubles, they're sorted as
+	 * primitive keys rather than through a comparator
+	 */
 	public static <A, B extends Comparable<B>> Map<A, B> sortByComparableValues(Map<A, B> map, boolean ascending) {
-		List<Map.Entry<A, B>> entries = new LinkedList<Entry<A, B>>(map.entrySet());
+		Map<A, B> sorted = sortByPrimitiveValues(map, ascending);
+		if (sorted != null) {
+			return sorted;
+		}
+		List<Map.Entry<A, B>> entries = new ArrayList<Entry<A, B>>(map.entrySet());
 		final int sign = ascending ? 1 : -1;
 		Collections.sort(entries, new Comparator<Map.Entry<A, B>>() {
 			@Override
@@ -712,6 +722,45 @@ public class MraUtils {
 		return out;
 	}
 
+	/**
+	 * @return null unless the values are all Longs or all Doubles
+	 */
+	@SuppressWarnings("unchecked")
+	private static <A, B> Map<A, B> sortByPrimitiveValues(Map<A, B> map, boolean ascending) {
+		// checked before copying anything, so other maps don't pay for it
+		Class<?> type = null;
+		for (B v : map.values()) {
+			if (v == null) {
+				return null;
+			}
+			if (type == null) {
+				type = v.getClass();
+				if (type != Long.class && type != Double.class) {
+					return null;
+				}
+			} else if (v.getClass() != type) {
+				return null;
+			}
+		}
+		Object[] entries = map.entrySet().toArray();
+		int n = entries.length;
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			Object v = ((Map.Entry<A, B>) entries[i]).getValue();
+			keys[i] = type == Long.class ? (Long) v : PrimitiveSort.sortableBits((Double) v);
+			if (!ascending) {
+				// reverses the order without overflowing, unlike negation
+				keys[i] = ~keys[i];
+			}
+		}
+		Map<A, B> out = new LinkedHashMap<A, B>();
+		for (int i : PrimitiveSort.stableOrder(keys)) {
+			Map.Entry<A, B> e = (Map.Entry<A, B>) entries[i];
+			out.put(e.getKey(), e.getValue());
+		}
+		return out;
+	}
+
 	public static interface IComparableRange<T> {
 		public SortedSet<T> getRange();
 	}
@@ -0,0 +1,438 @@
+package com.xoba.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * same as {@link LongCounter}, but with keys and counts kept in parallel
+ * arrays, probed linearly; an increment is a single probe sequence, without
+ * allocating, and each entry costs two array slots instead of a map node and
+ * a boxed Long
+ *
+ */
+public class OpenLongCounter<T> implements Iterable<Map.Entry<T, Long>>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// stands in for a null key, since null marks an empty slot
+	private static final Object NULL_KEY = new Object();
+
+	private static final int MIN_CAPACITY = 16;
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/**
+	 * most keys that can be counted
+	 */
+	public static final int MAX_SIZE = MAX_CAPACITY / 2;
+
+	private transient Object[] keys;
+
+	private transient long[] values;
+
+	private transient int size;
+
+	// table length is 2^bits
+	private transient int bits;
+
+	private boolean immutable = false;
+
+	public OpenLongCounter() {
+		this(MIN_CAPACITY / 2);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of keys that can be counted before the table grows
+	 */
+	public OpenLongCounter(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int size) {
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("can't count " + size + " keys");
+		}
+		int capacity = MIN_CAPACITY;
+		while (capacity / 2 < size) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new long[capacity];
+		bits = Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private int slot(Object k) {
+		// fibonacci hashing, so that poor hash codes still spread out
+		return (k.hashCode() * 0x9e3779b9) >>> (32 - bits);
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T unmask(Object k) {
+		return k == NULL_KEY ? null : (T) k;
+	}
+
+	/**
+	 * @return slot holding the key, or -1 if absent
+	 */
+	private int find(Object k) {
+		int m = keys.length - 1;
+		for (int i = slot(k);; i = (i + 1) & m) {
+			Object x = keys[i];
+			if (x == null) {
+				return -1;
+			}
+			if (x == k || x.equals(k)) {
+				return i;
+			}
+		}
+	}
+
+	public void accumulate(OpenLongCounter<T> o) {
+		for (int i = 0; i < o.keys.length; i++) {
+			if (o.keys[i] != null) {
+				inc(OpenLongCounter.<T> unmask(o.keys[i]), o.values[i]);
+			}
+		}
+	}
+
+	public void accumulate(LongCounter<T> o) {
+		for (Map.Entry<T, Long> e : o) {
+			inc(e.getKey(), e.getValue());
+		}
+	}
+
+	public void inc(T key) {
+		inc(key, 1);
+	}
+
+	public void inc(T key, long x) {
+		if (immutable) {
+			throw new IllegalStateException("immutable");
+		}
+		Object k = mask(key);
+		Object[] keys = this.keys;
+		int m = keys.length - 1;
+		for (int i = slot(k);; i = (i + 1) & m) {
+			Object y = keys[i];
+			if (y == null) {
+				if (size == MAX_SIZE) {
+					throw new IllegalStateException("can't count more than " + MAX_SIZE + " keys");
+				}
+				keys[i] = k;
+				values[i] = x;
+				// at most half full
+				if (++size > keys.length / 2) {
+					grow();
+				}
+				return;
+			}
+			if (y == k || y.equals(k)) {
+				values[i] += x;
+				return;
+			}
+		}
+	}
+
+	private void grow() {
+		Object[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		int m = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			Object k = oldKeys[j];
+			if (k != null) {
+				int i = slot(k);
+				while (keys[i] != null) {
+					i = (i + 1) & m;
+				}
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public void setImmutable() {
+		this.immutable = true;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	public long get(T key) {
+		int i = find(mask(key));
+		return i < 0 ? 0 : values[i];
+	}
+
+	public Set<T> keySet() {
+		return new AbstractSet<T>() {
+			@Override
+			public Iterator<T> iterator() {
+				return new SlotIterator<T>() {
+					@Override
+					protected T get(int i) {
+						return unmask(keys[i]);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return find(mask(o)) >= 0;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	public Collection<Long> values() {
+		return new AbstractCollection<Long>() {
+			@Override
+			public Iterator<Long> iterator() {
+				return new SlotIterator<Long>() {
+					@Override
+					protected Long get(int i) {
+						return values[i];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	public Map<T, Long> getSorted(boolean ascending) {
+		return MraUtils.sortByComparableValues(getMap(), ascending);
+	}
+
+	/**
+	 * as {@link LongCounter#top(int, boolean)}
+	 */
+	public Map<T, Long> top(int k, boolean ascending) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				heap.offer(values[i], keys[i]);
+			}
+		}
+		return toMap(heap, ascending, false);
+	}
+
+	/**
+	 * as {@link LongCounter#bottom(int)}
+	 */
+	public Map<T, Long> bottom(int k) {
+		PrimitiveSort.BoundedHeap heap = new PrimitiveSort.BoundedHeap(k, size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				heap.offer(~values[i], keys[i]);
+			}
+		}
+		return toMap(heap, false, true);
+	}
+
+	private static <T> Map<T, Long> toMap(PrimitiveSort.BoundedHeap heap, boolean reverse, boolean complemented) {
+		heap.sort();
+		Map<T, Long> out = new LinkedHashMap<T, Long>();
+		int n = heap.size();
+		for (int j = 0; j < n; j++) {
+			int i = reverse ? n - 1 - j : j;
+			long key = heap.getKey(i);
+			out.put(OpenLongCounter.<T> unmask(heap.getObject(i)), complemented ? ~key : key);
+		}
+		return out;
+	}
+
+	public Map<T, Long> getMap() {
+		Map<T, Long> out = new HashMap<T, Long>();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				out.put(OpenLongCounter.<T> unmask(keys[i]), values[i]);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * same contents, as a {@link LongCounter}
+	 */
+	public LongCounter<T> toLongCounter() {
+		LongCounter<T> out = new LongCounter<T>();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				out.inc(OpenLongCounter.<T> unmask(keys[i]), values[i]);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * entries are created as they're iterated over
+	 */
+	public Iterator<Map.Entry<T, Long>> iterator() {
+		return new SlotIterator<Map.Entry<T, Long>>() {
+			@Override
+			protected Map.Entry<T, Long> get(int i) {
+				return new AbstractMap.SimpleImmutableEntry<T, Long>(OpenLongCounter.<T> unmask(keys[i]), values[i]);
+			}
+		};
+	}
+
+	/**
+	 * visits occupied slots; like the map views of {@link LongCounter}, these
+	 * are read-only
+	 */
+	private abstract class SlotIterator<E> implements Iterator<E> {
+
+		private int next = advance(0);
+
+		private int advance(int i) {
+			while (i < keys.length && keys[i] == null) {
+				i++;
+			}
+			return i;
+		}
+
+		protected abstract E get(int i);
+
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		public E next() {
+			if (next >= keys.length) {
+				throw new NoSuchElementException();
+			}
+			E out = get(next);
+			next = advance(next + 1);
+			return out;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long sum() {
+		long out = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				out += values[i];
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * same as the hash code of {@link #getMap()}
+	 */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				h += (keys[i] == NULL_KEY ? 0 : keys[i].hashCode()) ^ Long.hashCode(values[i]);
+			}
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof OpenLongCounter) {
+			OpenLongCounter<?> other = (OpenLongCounter<?>) obj;
+			if (other.size != size) {
+				return false;
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null) {
+					int j = other.find(keys[i]);
+					if (j < 0 || other.values[j] != values[i]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("{");
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				if (b.length() > 1) {
+					b.append(", ");
+				}
+				b.append(keys[i] == NULL_KEY ? null : keys[i]).append('=').append(values[i]);
+			}
+		}
+		return b.append('}').toString();
+	}
+
+	/**
+	 * just the entries, so that the table's sized afresh when read, and null
+	 * keys stay null
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				out.writeObject(unmask(keys[i]));
+				out.writeLong(values[i]);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		if (n > MAX_SIZE) {
+			throw new InvalidObjectException("too many keys: " + n);
+		}
+		allocate(capacityFor(n));
+		boolean wasImmutable = immutable;
+		immutable = false;
+		for (int i = 0; i < n; i++) {
+			inc((T) in.readObject(), in.readLong());
+		}
+		immutable = wasImmutable;
+	}
+
+}
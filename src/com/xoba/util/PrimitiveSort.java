@@ -0,0 +1,200 @@
+package com.xoba.util;
+
+/**
+ * sorting and selection by primitive long keys, for ordering counters without
+ * boxing or comparators. doubles are ordered through
+ * {@link #sortableBits(double)}
+ *
+ */
+final class PrimitiveSort {
+
+	private PrimitiveSort() {
+	}
+
+	/**
+	 * bits of a double, as a long which orders the same way as
+	 * {@link Double#compareTo(Double)}: negatives have all but the sign bit
+	 * flipped, so that larger magnitudes come first
+	 */
+	static long sortableBits(double d) {
+		long bits = Double.doubleToLongBits(d);
+		return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+	}
+
+	/**
+	 * inverse of {@link #sortableBits(double)}
+	 */
+	static double fromSortableBits(long bits) {
+		return Double.longBitsToDouble(bits ^ ((bits >> 63) & 0x7fffffffffffffffL));
+	}
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	/**
+	 * @return indexes into keys, ordered by ascending key; equal keys stay in
+	 *         index order
+	 */
+	static int[] stableOrder(long[] keys) {
+		int n = keys.length;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		mergeSort(keys, order, new int[n], 0, n);
+		return order;
+	}
+
+	private static void mergeSort(long[] keys, int[] order, int[] temp, int from, int to) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				int x = order[i];
+				long k = keys[x];
+				int j = i - 1;
+				while (j >= from && keys[order[j]] > k) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = x;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(keys, order, temp, from, mid);
+		mergeSort(keys, order, temp, mid, to);
+		if (keys[order[mid - 1]] <= keys[order[mid]]) {
+			// already in order
+			return;
+		}
+		System.arraycopy(order, from, temp, from, to - from);
+		int i = from, j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && keys[temp[i]] <= keys[temp[j]])) {
+				order[k] = temp[i++];
+			} else {
+				order[k] = temp[j++];
+			}
+		}
+	}
+
+	/**
+	 * keeps the entries with the k largest keys offered, in a min-heap of
+	 * primitive keys, in O(log k) per offer; of entries with equal keys, those
+	 * offered first are kept and come first
+	 *
+	 */
+	static final class BoundedHeap {
+
+		private final long[] keys;
+
+		private final long[] sequence;
+
+		private final Object[] objects;
+
+		private int size;
+
+		private long offered;
+
+		/**
+		 * @param k
+		 * @param offers
+		 *            most entries that will be offered, so that a large k
+		 *            doesn't allocate more than can be kept
+		 */
+		BoundedHeap(int k, int offers) {
+			int capacity = Math.max(0, Math.min(k, offers));
+			this.keys = new long[capacity];
+			this.sequence = new long[capacity];
+			this.objects = new Object[capacity];
+		}
+
+		/**
+		 * whether entry i should come after entry j in the result
+		 */
+		private boolean after(int i, int j) {
+			return keys[i] < keys[j] || (keys[i] == keys[j] && sequence[i] > sequence[j]);
+		}
+
+		void offer(long key, Object o) {
+			long seq = offered++;
+			if (size < keys.length) {
+				int i = size++;
+				set(i, key, seq, o);
+				siftUp(i);
+			} else if (size > 0 && key > keys[0]) {
+				// later offers lose ties, so only a strictly larger key enters
+				set(0, key, seq, o);
+				siftDown(0, size);
+			}
+		}
+
+		private void set(int i, long key, long seq, Object o) {
+			keys[i] = key;
+			sequence[i] = seq;
+			objects[i] = o;
+		}
+
+		private void swap(int i, int j) {
+			long k = keys[i];
+			keys[i] = keys[j];
+			keys[j] = k;
+			long s = sequence[i];
+			sequence[i] = sequence[j];
+			sequence[j] = s;
+			Object o = objects[i];
+			objects[i] = objects[j];
+			objects[j] = o;
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!after(i, parent)) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void siftDown(int i, int n) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= n) {
+					break;
+				}
+				if (child + 1 < n && after(child + 1, child)) {
+					child++;
+				}
+				if (!after(child, i)) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		/**
+		 * orders the kept entries first to last, by heapsort; nothing more
+		 * should be offered afterwards
+		 */
+		void sort() {
+			for (int n = size - 1; n > 0; n--) {
+				swap(0, n);
+				siftDown(0, n);
+			}
+		}
+
+		int size() {
+			return size;
+		}
+
+		long getKey(int i) {
+			return keys[i];
+		}
+
+		Object getObject(int i) {
+			return objects[i];
+		}
+	}
+
+}
@@ -0,0 +1,294 @@
+package com.xoba.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * approximate counter for finding the most frequent keys of a stream in fixed
+ * memory, by the Space-Saving algorithm: at most a given number of keys are
+ * monitored, and a new key replaces the one with the lowest count, inheriting
+ * that count as its possible overestimate.
+ *
+ * with capacity m over a stream totalling N, each count is overestimated by at
+ * most N/m, and any key whose true count exceeds N/m is monitored. so
+ * {@link #withError(double)} bounds the error as a fraction of the stream.
+ *
+ * increments are a hash lookup plus O(log m) to keep the monitored keys in a
+ * min-heap by count
+ *
+ */
+public class SpaceSavingCounter<T> {
+
+	/**
+	 * a monitored key, whose true count is between count - error and count
+	 *
+	 */
+	public static class Estimate<T> {
+
+		private final T key;
+
+		private final long count, error;
+
+		private final boolean guaranteed;
+
+		public Estimate(T key, long count, long error, boolean guaranteed) {
+			this.key = key;
+			this.count = count;
+			this.error = error;
+			this.guaranteed = guaranteed;
+		}
+
+		public T getKey() {
+			return key;
+		}
+
+		/**
+		 * upper bound on the true count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * most by which the count may be overestimated
+		 */
+		public long getError() {
+			return error;
+		}
+
+		public long getLowerBound() {
+			return count - error;
+		}
+
+		/**
+		 * whether the key is certainly among the top k it was returned with,
+		 * rather than possibly there by overestimation
+		 */
+		public boolean isGuaranteed() {
+			return guaranteed;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count + (error > 0 ? "(-" + error + ")" : "") + (guaranteed ? "" : "?");
+		}
+	}
+
+	// stands in for a null key
+	private static final Object NULL_KEY = new Object();
+
+	private final int capacity;
+
+	// by slot, which stays fixed while its key is monitored
+	private final Object[] keys;
+
+	private final long[] counts, errors;
+
+	private final int[] positions;
+
+	// slots, ordered as a min-heap by count
+	private final int[] heap;
+
+	private int size;
+
+	private long total;
+
+	private final Map<Object, Integer> slots;
+
+	/**
+	 * @param capacity
+	 *            most keys monitored at once
+	 */
+	public SpaceSavingCounter(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("bad capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.keys = new Object[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		this.positions = new int[capacity];
+		this.heap = new int[capacity];
+		this.slots = new HashMap<Object, Integer>(capacity * 4 / 3 + 1);
+	}
+
+	/**
+	 * @param epsilon
+	 *            largest overestimate of any count, as a fraction of the
+	 *            stream's total
+	 * @return
+	 */
+	public static <T> SpaceSavingCounter<T> withError(double epsilon) {
+		if (!(epsilon > 0 && epsilon <= 1)) {
+			throw new IllegalArgumentException("bad error: " + epsilon);
+		}
+		return new SpaceSavingCounter<T>((int) Math.ceil(1 / epsilon));
+	}
+
+	public void inc(T key) {
+		inc(key, 1);
+	}
+
+	/**
+	 * @param key
+	 * @param x
+	 *            positive
+	 */
+	public void inc(T key, long x) {
+		if (x <= 0) {
+			throw new IllegalArgumentException("increments must be positive: " + x);
+		}
+		total += x;
+		Object k = key == null ? NULL_KEY : key;
+		Integer slot = slots.get(k);
+		if (slot != null) {
+			counts[slot] += x;
+			siftDown(positions[slot]);
+		} else if (size < capacity) {
+			int s = size++;
+			keys[s] = k;
+			counts[s] = x;
+			errors[s] = 0;
+			slots.put(k, s);
+			heap[s] = s;
+			positions[s] = s;
+			siftUp(s);
+		} else {
+			// replaces the key with the lowest count
+			int s = heap[0];
+			slots.remove(keys[s]);
+			keys[s] = k;
+			errors[s] = counts[s];
+			counts[s] += x;
+			slots.put(k, s);
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int i) {
+		int s = heap[i];
+		long c = counts[s];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			int p = heap[parent];
+			if (counts[p] <= c) {
+				break;
+			}
+			heap[i] = p;
+			positions[p] = i;
+			i = parent;
+		}
+		heap[i] = s;
+		positions[s] = i;
+	}
+
+	private void siftDown(int i) {
+		int s = heap[i];
+		long c = counts[s];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			int t = heap[child];
+			if (counts[t] >= c) {
+				break;
+			}
+			heap[i] = t;
+			positions[t] = i;
+			i = child;
+		}
+		heap[i] = s;
+		positions[s] = i;
+	}
+
+	/**
+	 * @return upper bound on the key's count; zero if the key isn't monitored,
+	 *         in which case its count is at most {@link #getMaxError()}
+	 */
+	public long get(T key) {
+		Integer slot = slots.get(key == null ? NULL_KEY : key);
+		return slot == null ? 0 : counts[slot];
+	}
+
+	/**
+	 * @return most by which any count is overestimated, which is at most the
+	 *         stream's total divided by the capacity
+	 */
+	public long getMaxError() {
+		return size < capacity ? 0 : counts[heap[0]];
+	}
+
+	/**
+	 * @return total of all increments, which is exact
+	 */
+	public long sum() {
+		return total;
+	}
+
+	/**
+	 * number of keys monitored
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param k
+	 * @return up to k keys with the highest estimated counts, highest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Estimate<T>> topK(int k) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = heap[i];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(counts[b], counts[a]);
+			}
+		});
+		int n = Math.min(k, size);
+		// what the first key left out might really have; unmonitored keys
+		// could have up to the max error
+		long threshold = n < size ? counts[order[n]] : getMaxError();
+		List<Estimate<T>> out = new ArrayList<Estimate<T>>(n);
+		for (int i = 0; i < n; i++) {
+			int s = order[i];
+			T key = keys[s] == NULL_KEY ? null : (T) keys[s];
+			out.add(new Estimate<T>(key, counts[s], errors[s], counts[s] - errors[s] >= threshold));
+		}
+		return Collections.unmodifiableList(out);
+	}
+
+	/**
+	 * all monitored keys with their estimated counts
+	 */
+	@SuppressWarnings("unchecked")
+	public LongCounter<T> toLongCounter() {
+		LongCounter<T> out = new LongCounter<T>();
+		for (int s = 0; s < size; s++) {
+			out.inc(keys[s] == NULL_KEY ? null : (T) keys[s], counts[s]);
+		}
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("capacity = %,d; monitored = %,d; total = %,d; max error = %,d", capacity, size, total,
+				getMaxError());
+	}
+
+}
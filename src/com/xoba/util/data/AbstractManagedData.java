@@ -1,6 +1,9 @@
 package com.xoba.util.data;
 
-public abstract class AbstractManagedData<T> implements IManagedData<T> {
+import java.util.Collections;
+import java.util.Set;
+
+public abstract class AbstractManagedData<T> implements IDependentManagedData<T> {
 
 	private static final long serialVersionUID = 1L;
 
@@ -42,4 +45,11 @@ public abstract class AbstractManagedData<T> implements IManagedData<T> {
 		return getID();
 	}
 
+	/**
+	 * none, unless overridden
+	 */
+	public Set<String> getUpstreamIDs() {
+		return Collections.emptySet();
+	}
+
 }
@@ -0,0 +1,151 @@
+package com.xoba.util.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * remembers the most recently used IDs, so that a restarted process can warm
+ * its caches with them; see {@link ObjectManager#warmUp}
+ *
+ * recording is a single map update; the log is trimmed back to its capacity
+ * once it grows to twice that
+ *
+ */
+public class AccessLog {
+
+	private static final int MAGIC = 0x58414c31;
+
+	private final int capacity;
+
+	private final ConcurrentMap<String, Long> lastAccess = new ConcurrentHashMap<String, Long>();
+
+	public AccessLog(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("bad capacity: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public void record(String id) {
+		lastAccess.put(id, System.currentTimeMillis());
+		if (lastAccess.size() > 2 * capacity) {
+			trim();
+		}
+	}
+
+	private synchronized void trim() {
+		if (lastAccess.size() > 2 * capacity) {
+			List<Map.Entry<String, Long>> list = getEntriesByRecency();
+			for (Map.Entry<String, Long> e : list.subList(capacity, list.size())) {
+				lastAccess.remove(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private List<Map.Entry<String, Long>> getEntriesByRecency() {
+		List<Map.Entry<String, Long>> list = new ArrayList<Map.Entry<String, Long>>(lastAccess.entrySet());
+		Collections.sort(list, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * @return up to the log's capacity of IDs, most recently used first
+	 */
+	public List<String> getRecentIDs() {
+		return getRecentIDs(capacity);
+	}
+
+	/**
+	 * @return up to n IDs, most recently used first
+	 */
+	public List<String> getRecentIDs(int n) {
+		List<String> out = new ArrayList<String>();
+		for (Map.Entry<String, Long> e : getEntriesByRecency()) {
+			if (out.size() == n) {
+				break;
+			}
+			out.add(e.getKey());
+		}
+		return out;
+	}
+
+	public int size() {
+		return lastAccess.size();
+	}
+
+	/**
+	 * writes the recent IDs, replacing the file atomically
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			List<Map.Entry<String, Long>> list = getEntriesByRecency();
+			for (Map.Entry<String, Long> e : list.subList(0, Math.min(capacity, list.size()))) {
+				out.writeBoolean(true);
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue());
+			}
+			out.writeBoolean(false);
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @param file
+	 * @param capacity
+	 * @return the saved log, or an empty one if the file doesn't exist
+	 * @throws IOException
+	 */
+	public static AccessLog load(File file, int capacity) throws IOException {
+		AccessLog log = new AccessLog(capacity);
+		if (!file.exists()) {
+			return log;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not an access log: " + file);
+			}
+			while (in.readBoolean()) {
+				String id = in.readUTF();
+				long time = in.readLong();
+				if (log.lastAccess.size() < capacity) {
+					log.lastAccess.put(id, time);
+				}
+			}
+		} catch (EOFException e) {
+			throw new IOException("truncated access log: " + file, e);
+		} finally {
+			in.close();
+		}
+		return log;
+	}
+
+}
@@ -0,0 +1,511 @@
+package com.xoba.util.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.xoba.util.DoubleCounter;
+import com.xoba.util.LongCounter;
+
+/**
+ * compact binary encoding for common types: boxed primitives, strings,
+ * primitive arrays, the standard lists and maps, and counters. anything else
+ * falls back to java serialization, embedded as a length-prefixed blob.
+ *
+ * graphs are written as trees, so shared references are duplicated and
+ * cycles through lists or maps aren't supported
+ *
+ */
+public class BinaryCodec implements ICodec {
+
+	public static final String NAME = "binary";
+
+	private static final int NULL = 0, TRUE = 1, FALSE = 2, BYTE = 3, SHORT = 4, CHAR = 5, INT = 6, LONG = 7, FLOAT = 8,
+			DOUBLE = 9, ASCII_STRING = 10, STRING = 11, BOOLEAN_ARRAY = 12, BYTE_ARRAY = 13, SHORT_ARRAY = 14,
+			CHAR_ARRAY = 15, INT_ARRAY = 16, LONG_ARRAY = 17, FLOAT_ARRAY = 18, DOUBLE_ARRAY = 19, STRING_ARRAY = 20,
+			OBJECT_ARRAY = 21, ARRAY_LIST = 22, LINKED_LIST = 23, HASH_MAP = 24, LINKED_HASH_MAP = 25, TREE_MAP = 26,
+			LONG_COUNTER = 27, DOUBLE_COUNTER = 28, JAVA = 29;
+
+	private static final int SCRATCH_SIZE = 65536;
+
+	public String getName() {
+		return NAME;
+	}
+
+	public int getVersion() {
+		return 1;
+	}
+
+	public String getContentType() {
+		return "application/x-xoba-binary";
+	}
+
+	public void serialize(Object o, OutputStream out) throws IOException {
+		DataOutputStream dout = new DataOutputStream(out);
+		new Writer(dout).write(o);
+		dout.flush();
+	}
+
+	public Object deserialize(InputStream in) throws IOException, ClassNotFoundException {
+		return new Reader(new DataInputStream(in)).read();
+	}
+
+	private static final class Writer {
+
+		private final DataOutputStream out;
+
+		private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+
+		public Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		private void writeScratch(int bytes) throws IOException {
+			out.write(scratch.array(), 0, bytes);
+		}
+
+		@SuppressWarnings("unchecked")
+		public void write(Object o) throws IOException {
+			if (o == null) {
+				out.writeByte(NULL);
+			} else {
+				Class<?> c = o.getClass();
+				if (c == Boolean.class) {
+					out.writeByte((Boolean) o ? TRUE : FALSE);
+				} else if (c == Byte.class) {
+					out.writeByte(BYTE);
+					out.writeByte((Byte) o);
+				} else if (c == Short.class) {
+					out.writeByte(SHORT);
+					out.writeShort((Short) o);
+				} else if (c == Character.class) {
+					out.writeByte(CHAR);
+					out.writeChar((Character) o);
+				} else if (c == Integer.class) {
+					out.writeByte(INT);
+					out.writeInt((Integer) o);
+				} else if (c == Long.class) {
+					out.writeByte(LONG);
+					out.writeLong((Long) o);
+				} else if (c == Float.class) {
+					out.writeByte(FLOAT);
+					out.writeFloat((Float) o);
+				} else if (c == Double.class) {
+					out.writeByte(DOUBLE);
+					out.writeDouble((Double) o);
+				} else if (c == String.class) {
+					writeString((String) o);
+				} else if (c == boolean[].class) {
+					boolean[] a = (boolean[]) o;
+					out.writeByte(BOOLEAN_ARRAY);
+					out.writeInt(a.length);
+					for (boolean b : a) {
+						out.writeBoolean(b);
+					}
+				} else if (c == byte[].class) {
+					byte[] a = (byte[]) o;
+					out.writeByte(BYTE_ARRAY);
+					out.writeInt(a.length);
+					out.write(a);
+				} else if (c == short[].class) {
+					short[] a = (short[]) o;
+					out.writeByte(SHORT_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 2) {
+						int n = Math.min(SCRATCH_SIZE / 2, a.length - i);
+						scratch.clear();
+						scratch.asShortBuffer().put(a, i, n);
+						writeScratch(2 * n);
+					}
+				} else if (c == char[].class) {
+					char[] a = (char[]) o;
+					out.writeByte(CHAR_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 2) {
+						int n = Math.min(SCRATCH_SIZE / 2, a.length - i);
+						scratch.clear();
+						scratch.asCharBuffer().put(a, i, n);
+						writeScratch(2 * n);
+					}
+				} else if (c == int[].class) {
+					int[] a = (int[]) o;
+					out.writeByte(INT_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 4) {
+						int n = Math.min(SCRATCH_SIZE / 4, a.length - i);
+						scratch.clear();
+						scratch.asIntBuffer().put(a, i, n);
+						writeScratch(4 * n);
+					}
+				} else if (c == long[].class) {
+					long[] a = (long[]) o;
+					out.writeByte(LONG_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 8) {
+						int n = Math.min(SCRATCH_SIZE / 8, a.length - i);
+						scratch.clear();
+						scratch.asLongBuffer().put(a, i, n);
+						writeScratch(8 * n);
+					}
+				} else if (c == float[].class) {
+					float[] a = (float[]) o;
+					out.writeByte(FLOAT_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 4) {
+						int n = Math.min(SCRATCH_SIZE / 4, a.length - i);
+						scratch.clear();
+						scratch.asFloatBuffer().put(a, i, n);
+						writeScratch(4 * n);
+					}
+				} else if (c == double[].class) {
+					double[] a = (double[]) o;
+					out.writeByte(DOUBLE_ARRAY);
+					out.writeInt(a.length);
+					for (int i = 0; i < a.length; i += SCRATCH_SIZE / 8) {
+						int n = Math.min(SCRATCH_SIZE / 8, a.length - i);
+						scratch.clear();
+						scratch.asDoubleBuffer().put(a, i, n);
+						writeScratch(8 * n);
+					}
+				} else if (c == String[].class) {
+					String[] a = (String[]) o;
+					out.writeByte(STRING_ARRAY);
+					out.writeInt(a.length);
+					for (String s : a) {
+						write(s);
+					}
+				} else if (c == Object[].class) {
+					Object[] a = (Object[]) o;
+					out.writeByte(OBJECT_ARRAY);
+					out.writeInt(a.length);
+					for (Object x : a) {
+						write(x);
+					}
+				} else if (c == ArrayList.class) {
+					writeCollection(ARRAY_LIST, (Collection<?>) o);
+				} else if (c == LinkedList.class) {
+					writeCollection(LINKED_LIST, (Collection<?>) o);
+				} else if (c == HashMap.class) {
+					writeMap(HASH_MAP, (Map<?, ?>) o);
+				} else if (c == LinkedHashMap.class) {
+					// access order, if any, isn't preserved
+					writeMap(LINKED_HASH_MAP, (Map<?, ?>) o);
+				} else if (c == TreeMap.class && ((TreeMap<?, ?>) o).comparator() == null) {
+					writeMap(TREE_MAP, (Map<?, ?>) o);
+				} else if (c == LongCounter.class) {
+					LongCounter<Object> counter = (LongCounter<Object>) o;
+					out.writeByte(LONG_COUNTER);
+					out.writeBoolean(counter.isImmutable());
+					out.writeInt(counter.size());
+					for (Map.Entry<Object, Long> e : counter) {
+						write(e.getKey());
+						out.writeLong(e.getValue());
+					}
+				} else if (c == DoubleCounter.class) {
+					DoubleCounter<Object> counter = (DoubleCounter<Object>) o;
+					out.writeByte(DOUBLE_COUNTER);
+					out.writeBoolean(counter.isImmutable());
+					out.writeInt(counter.size());
+					for (Map.Entry<Object, Double> e : counter) {
+						write(e.getKey());
+						out.writeDouble(e.getValue());
+					}
+				} else if (o instanceof Serializable) {
+					ByteArrayOutputStream bout = new ByteArrayOutputStream();
+					ObjectOutputStream oos = new ObjectOutputStream(bout);
+					oos.writeObject(o);
+					oos.close();
+					out.writeByte(JAVA);
+					out.writeInt(bout.size());
+					bout.writeTo(out);
+				} else {
+					throw new NotSerializableException(c.getName());
+				}
+			}
+		}
+
+		private void writeString(String s) throws IOException {
+			int n = s.length();
+			boolean ascii = true;
+			for (int i = 0; i < n && ascii; i++) {
+				ascii = s.charAt(i) < 0x80;
+			}
+			if (ascii) {
+				out.writeByte(ASCII_STRING);
+				out.writeInt(n);
+				for (int i = 0; i < n; i += SCRATCH_SIZE) {
+					int m = Math.min(SCRATCH_SIZE, n - i);
+					byte[] b = scratch.array();
+					for (int j = 0; j < m; j++) {
+						b[j] = (byte) s.charAt(i + j);
+					}
+					writeScratch(m);
+				}
+			} else {
+				out.writeByte(STRING);
+				out.writeInt(n);
+				for (int i = 0; i < n; i += SCRATCH_SIZE / 2) {
+					int m = Math.min(SCRATCH_SIZE / 2, n - i);
+					scratch.clear();
+					scratch.asCharBuffer().put(s, i, i + m);
+					writeScratch(2 * m);
+				}
+			}
+		}
+
+		private void writeCollection(int tag, Collection<?> c) throws IOException {
+			out.writeByte(tag);
+			out.writeInt(c.size());
+			for (Object x : c) {
+				write(x);
+			}
+		}
+
+		private void writeMap(int tag, Map<?, ?> map) throws IOException {
+			out.writeByte(tag);
+			out.writeInt(map.size());
+			for (Map.Entry<?, ?> e : map.entrySet()) {
+				write(e.getKey());
+				write(e.getValue());
+			}
+		}
+	}
+
+	private static final class Reader {
+
+		private final DataInputStream in;
+
+		private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+
+		public Reader(DataInputStream in) {
+			this.in = in;
+		}
+
+		private void readScratch(int bytes) throws IOException {
+			scratch.clear();
+			in.readFully(scratch.array(), 0, bytes);
+		}
+
+		private int readLength() throws IOException {
+			int n = in.readInt();
+			if (n < 0) {
+				throw new StreamCorruptedException("negative length: " + n);
+			}
+			return n;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Object read() throws IOException, ClassNotFoundException {
+			int tag = in.readByte();
+			switch (tag) {
+			case NULL:
+				return null;
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case CHAR:
+				return in.readChar();
+			case INT:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			case ASCII_STRING: {
+				int n = readLength();
+				char[] chars = new char[n];
+				for (int i = 0; i < n; i += SCRATCH_SIZE) {
+					int m = Math.min(SCRATCH_SIZE, n - i);
+					readScratch(m);
+					byte[] b = scratch.array();
+					for (int j = 0; j < m; j++) {
+						chars[i + j] = (char) b[j];
+					}
+				}
+				return new String(chars);
+			}
+			case STRING: {
+				char[] chars = readChars(readLength());
+				return new String(chars);
+			}
+			case BOOLEAN_ARRAY: {
+				boolean[] a = new boolean[readLength()];
+				for (int i = 0; i < a.length; i++) {
+					a[i] = in.readBoolean();
+				}
+				return a;
+			}
+			case BYTE_ARRAY: {
+				byte[] a = new byte[readLength()];
+				in.readFully(a);
+				return a;
+			}
+			case SHORT_ARRAY: {
+				short[] a = new short[readLength()];
+				for (int i = 0; i < a.length; i += SCRATCH_SIZE / 2) {
+					int n = Math.min(SCRATCH_SIZE / 2, a.length - i);
+					readScratch(2 * n);
+					scratch.asShortBuffer().get(a, i, n);
+				}
+				return a;
+			}
+			case CHAR_ARRAY:
+				return readChars(readLength());
+			case INT_ARRAY: {
+				int[] a = new int[readLength()];
+				for (int i = 0; i < a.length; i += SCRATCH_SIZE / 4) {
+					int n = Math.min(SCRATCH_SIZE / 4, a.length - i);
+					readScratch(4 * n);
+					scratch.asIntBuffer().get(a, i, n);
+				}
+				return a;
+			}
+			case LONG_ARRAY: {
+				long[] a = new long[readLength()];
+				for (int i = 0; i < a.length; i += SCRATCH_SIZE / 8) {
+					int n = Math.min(SCRATCH_SIZE / 8, a.length - i);
+					readScratch(8 * n);
+					scratch.asLongBuffer().get(a, i, n);
+				}
+				return a;
+			}
+			case FLOAT_ARRAY: {
+				float[] a = new float[readLength()];
+				for (int i = 0; i < a.length; i += SCRATCH_SIZE / 4) {
+					int n = Math.min(SCRATCH_SIZE / 4, a.length - i);
+					readScratch(4 * n);
+					scratch.asFloatBuffer().get(a, i, n);
+				}
+				return a;
+			}
+			case DOUBLE_ARRAY: {
+				double[] a = new double[readLength()];
+				for (int i = 0; i < a.length; i += SCRATCH_SIZE / 8) {
+					int n = Math.min(SCRATCH_SIZE / 8, a.length - i);
+					readScratch(8 * n);
+					scratch.asDoubleBuffer().get(a, i, n);
+				}
+				return a;
+			}
+			case STRING_ARRAY: {
+				String[] a = new String[readLength()];
+				for (int i = 0; i < a.length; i++) {
+					a[i] = (String) read();
+				}
+				return a;
+			}
+			case OBJECT_ARRAY: {
+				Object[] a = new Object[readLength()];
+				for (int i = 0; i < a.length; i++) {
+					a[i] = read();
+				}
+				return a;
+			}
+			case ARRAY_LIST: {
+				int n = readLength();
+				return readCollection(n, new ArrayList<Object>(n));
+			}
+			case LINKED_LIST:
+				return readCollection(readLength(), new LinkedList<Object>());
+			case HASH_MAP: {
+				int n = readLength();
+				return readMap(n, new HashMap<Object, Object>(Math.max(16, (int) (n / 0.75f) + 1)));
+			}
+			case LINKED_HASH_MAP: {
+				int n = readLength();
+				return readMap(n, new LinkedHashMap<Object, Object>(Math.max(16, (int) (n / 0.75f) + 1)));
+			}
+			case TREE_MAP:
+				return readMap(readLength(), new TreeMap());
+			case LONG_COUNTER: {
+				boolean immutable = in.readBoolean();
+				int n = readLength();
+				LongCounter<Object> counter = new LongCounter<Object>();
+				for (int i = 0; i < n; i++) {
+					Object key = read();
+					counter.inc(key, in.readLong());
+				}
+				if (immutable) {
+					counter.setImmutable();
+				}
+				return counter;
+			}
+			case DOUBLE_COUNTER: {
+				boolean immutable = in.readBoolean();
+				int n = readLength();
+				DoubleCounter<Object> counter = new DoubleCounter<Object>();
+				for (int i = 0; i < n; i++) {
+					Object key = read();
+					counter.inc(key, in.readDouble());
+				}
+				if (immutable) {
+					counter.setImmutable();
+				}
+				return counter;
+			}
+			case JAVA: {
+				byte[] buf = new byte[readLength()];
+				in.readFully(buf);
+				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buf));
+				try {
+					return ois.readObject();
+				} finally {
+					ois.close();
+				}
+			}
+			default:
+				throw new StreamCorruptedException("unknown tag: " + tag);
+			}
+		}
+
+		private char[] readChars(int length) throws IOException {
+			char[] a = new char[length];
+			for (int i = 0; i < a.length; i += SCRATCH_SIZE / 2) {
+				int n = Math.min(SCRATCH_SIZE / 2, a.length - i);
+				readScratch(2 * n);
+				scratch.asCharBuffer().get(a, i, n);
+			}
+			return a;
+		}
+
+		private Collection<Object> readCollection(int n, Collection<Object> c) throws IOException, ClassNotFoundException {
+			for (int i = 0; i < n; i++) {
+				c.add(read());
+			}
+			return c;
+		}
+
+		private Map<Object, Object> readMap(int n, Map<Object, Object> map) throws IOException, ClassNotFoundException {
+			for (int i = 0; i < n; i++) {
+				Object key = read();
+				map.put(key, read());
+			}
+			return map;
+		}
+	}
+
+}
@@ -0,0 +1,339 @@
+package com.xoba.util.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * in-memory cache bounded by entry count and by total weight.
+ *
+ * new entries enter a small LRU window; when the window overflows, its eldest
+ * entry is only admitted to the main LRU region if it has been used more
+ * often recently than the entry it would displace (W-TinyLFU)
+ *
+ */
+public class BoundedMemoryCache implements IOnHeapCache, IEvictingCache, IDatedCache {
+
+	/**
+	 * estimates the cost of keeping an object in the cache, e.g. in bytes
+	 *
+	 */
+	public static interface IWeigher {
+
+		public long weigh(String key, Object o);
+
+	}
+
+	public static final IWeigher UNIT_WEIGHER = new IWeigher() {
+		public long weigh(String key, Object o) {
+			return 1;
+		}
+	};
+
+	/**
+	 * weighs objects by their java-serialized size, which is expensive but
+	 * reasonable for large, infrequently stored objects
+	 *
+	 * @return
+	 */
+	public static IWeigher createSerializedSizeWeigher() {
+		return new IWeigher() {
+			public long weigh(String key, Object o) {
+				try {
+					ByteArrayOutputStream bout = new ByteArrayOutputStream();
+					ObjectOutputStream out = new ObjectOutputStream(bout);
+					try {
+						out.writeObject(o);
+					} finally {
+						out.close();
+					}
+					return bout.size();
+				} catch (IOException e) {
+					throw new IllegalArgumentException("can't weigh " + key, e);
+				}
+			}
+		};
+	}
+
+	private static final class Record implements ICacheEntry {
+
+		private final Object object;
+
+		private final Date date;
+
+		private final long weight;
+
+		public Record(Object object, long weight, Date date) {
+			this.object = object;
+			this.date = date;
+			this.weight = weight;
+		}
+
+		public Object getObject() {
+			return object;
+		}
+
+		public Date getDateObjectStored() {
+			return date;
+		}
+
+		public long getStoredSizeEstimate() {
+			return weight;
+		}
+	}
+
+	private final int maxEntries, windowMaxEntries;
+
+	private final long maxWeight;
+
+	private final IWeigher weigher;
+
+	private final LinkedHashMap<String, Record> window = new LinkedHashMap<String, Record>(16, 0.75f, true);
+
+	private final LinkedHashMap<String, Record> main = new LinkedHashMap<String, Record>(16, 0.75f, true);
+
+	private final FrequencySketch sketch;
+
+	private long weight;
+
+	private long hits, misses, evictions, rejections, evictedWeight;
+
+	private IEvictionListener listener;
+
+	// entries dropped during the current store, while there's a listener
+	private List<Map.Entry<String, Record>> dropped;
+
+	public BoundedMemoryCache(int maxEntries) {
+		this(maxEntries, Long.MAX_VALUE, UNIT_WEIGHER);
+	}
+
+	public BoundedMemoryCache(int maxEntries, long maxWeight, IWeigher weigher) {
+		if (maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("limits must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.windowMaxEntries = Math.max(1, maxEntries / 100);
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.sketch = new FrequencySketch(maxEntries);
+	}
+
+	private Record getRecord(String key) {
+		Record rec = window.get(key);
+		if (rec == null) {
+			rec = main.get(key);
+		}
+		return rec;
+	}
+
+	private boolean overLimits() {
+		return window.size() + main.size() > maxEntries || weight > maxWeight;
+	}
+
+	private void evict(Map<String, Record> region, String key) {
+		Record rec = region.remove(key);
+		weight -= rec.weight;
+		evictions++;
+		evictedWeight += rec.weight;
+		drop(key, rec);
+	}
+
+	private void drop(String key, Record rec) {
+		if (dropped != null) {
+			dropped.add(new AbstractMap.SimpleImmutableEntry<String, Record>(key, rec));
+		}
+	}
+
+	public synchronized void setEvictionListener(IEvictionListener listener) {
+		this.listener = listener;
+	}
+
+	private static String eldest(Map<String, Record> region) {
+		return region.keySet().iterator().next();
+	}
+
+	private void enforceLimits() {
+		while (window.size() > windowMaxEntries) {
+			String candidate = eldest(window);
+			main.put(candidate, window.remove(candidate));
+			admit(candidate);
+		}
+		// large window entries can exceed the weight limit by themselves
+		while (overLimits()) {
+			if (main.isEmpty()) {
+				evict(window, eldest(window));
+			} else {
+				evict(main, eldest(main));
+			}
+		}
+	}
+
+	/**
+	 * candidate has just been moved into the main region; make room for it, or
+	 * reject it if it's less popular than what it would displace
+	 */
+	private void admit(String candidate) {
+		while (overLimits() && !main.isEmpty()) {
+			String victim = eldest(main);
+			if (victim.equals(candidate) || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+				evict(main, candidate);
+				rejections++;
+				return;
+			}
+			evict(main, victim);
+		}
+	}
+
+	public synchronized Date getDateObjectStored(String key) {
+		Record rec = getRecord(key);
+		return rec == null ? null : rec.date;
+	}
+
+	/**
+	 * the weight of the stored object
+	 */
+	public synchronized long getStoredSizeEstimate(String key) {
+		Record rec = getRecord(key);
+		return rec == null ? 0 : rec.weight;
+	}
+
+	/**
+	 * counts as a hit or miss, and updates recency and frequency
+	 */
+	public synchronized ICacheEntry getEntry(String key) {
+		sketch.increment(key);
+		Record rec = getRecord(key);
+		if (rec == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return rec;
+	}
+
+	/**
+	 * counts as a hit or miss, and updates recency and frequency
+	 */
+	public synchronized Object getObject(String key) {
+		ICacheEntry rec = getEntry(key);
+		return rec == null ? null : rec.getObject();
+	}
+
+	/**
+	 * a negative answer counts as a miss, since callers won't follow up with
+	 * getObject
+	 */
+	public synchronized boolean hasObjectForKey(String key) {
+		boolean has = window.containsKey(key) || main.containsKey(key);
+		if (!has) {
+			sketch.increment(key);
+			misses++;
+		}
+		return has;
+	}
+
+	public void storeObject(String key, Object o) {
+		storeObject(key, o, new Date());
+	}
+
+	public void storeObject(String key, Object o, Date stored) {
+		// weighing may serialize the object, so it's done before locking
+		long w = weigher.weigh(key, o);
+		IEvictionListener l;
+		List<Map.Entry<String, Record>> d;
+		synchronized (this) {
+			l = listener;
+			dropped = l == null ? null : new ArrayList<Map.Entry<String, Record>>();
+			try {
+				store(key, o, w, stored);
+				d = dropped;
+			} finally {
+				dropped = null;
+			}
+		}
+		if (l != null) {
+			for (Map.Entry<String, Record> e : d) {
+				l.evicted(e.getKey(), e.getValue().object, e.getValue().date);
+			}
+		}
+	}
+
+	private void store(String key, Object o, long w, Date stored) {
+		removeObject(key);
+		sketch.increment(key);
+		if (w > maxWeight) {
+			rejections++;
+			drop(key, new Record(o, w, stored));
+			return;
+		}
+		window.put(key, new Record(o, w, stored));
+		weight += w;
+		enforceLimits();
+	}
+
+	public synchronized boolean removeObject(String key) {
+		Record rec = window.remove(key);
+		if (rec == null) {
+			rec = main.remove(key);
+		}
+		if (rec != null) {
+			weight -= rec.weight;
+		}
+		return true;
+	}
+
+	public synchronized Iterator<String> iterator() {
+		TreeSet<String> keys = new TreeSet<String>(window.keySet());
+		keys.addAll(main.keySet());
+		return keys.iterator();
+	}
+
+	public synchronized int size() {
+		return window.size() + main.size();
+	}
+
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * how many new entries were refused, either by the admission policy or for
+	 * being heavier than the whole cache
+	 *
+	 * @return
+	 */
+	public synchronized long getRejectionCount() {
+		return rejections;
+	}
+
+	public synchronized long getEvictedWeight() {
+		return evictedWeight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("entries = %d/%d; weight = %d/%d; hits = %d; misses = %d; evictions = %d; rejections = %d",
+				size(), maxEntries, weight, maxWeight, hits, misses, evictions, rejections);
+	}
+
+}
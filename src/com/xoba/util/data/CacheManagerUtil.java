@@ -4,41 +4,106 @@ import java.util.Date;
 
 public class CacheManagerUtil {
 
+	/**
+	 * data that's both refreshed in the background and removed once expired
+	 */
+	private static interface IRefreshingExpiringCacheManager<T> extends IRefreshingCacheManager<T>,
+			IExpiringCacheManager<T> {
+	}
+
+	private static long addSaturated(long time, long millis) {
+		long sum = time + millis;
+		return millis > 0 && sum < time ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * the returned manager is also an {@link IExpiringCacheManager}
+	 */
 	public static <T> ICacheManager<T> createDailyCacheManager() {
-		return new ICacheManager<T>() {
-			public boolean canUsePreviouslyCachedData(com.xoba.util.data.ICacheManager.IDataBrowser<T> browser,
-					Date cacheCreationDate, long size) {
-				long now = System.currentTimeMillis();
-				long cached = cacheCreationDate.getTime();
-				return now - cached < 12L * 3600L * 1000L;
-			}
-		};
+		return createDailyCacheManager(IClock.SYSTEM);
+	}
+
+	public static <T> IExpiringCacheManager<T> createDailyCacheManager(IClock clock) {
+		return createMillisExpirationCacheManager(12L * 3600L * 1000L, clock);
 	}
 
 	/**
 	 * returns a cache manager based solely on ID, yet invalidates after the
-	 * given number of days
+	 * given number of days; it's also an {@link IExpiringCacheManager}
 	 * 
 	 * @param <T>
 	 * @param daysExpiration
 	 * @return
 	 */
-	public static <T> ICacheManager<T> createIDBasedCacheManager(final long daysExpiration) {
-		return new ICacheManager<T>() {
+	public static <T> ICacheManager<T> createIDBasedCacheManager(long daysExpiration) {
+		return createIDBasedCacheManager(daysExpiration, IClock.SYSTEM);
+	}
+
+	public static <T> IExpiringCacheManager<T> createIDBasedCacheManager(long daysExpiration, IClock clock) {
+		return createMillisExpirationCacheManager(daysExpiration * 24L * 3600L * 1000L, clock);
+	}
+
+	/**
+	 * the returned manager is also an {@link IExpiringCacheManager}
+	 */
+	public static <T> ICacheManager<T> createMillisExpirationCacheManager(long expiration) {
+		return createMillisExpirationCacheManager(expiration, IClock.SYSTEM);
+	}
+
+	public static <T> IExpiringCacheManager<T> createMillisExpirationCacheManager(final long expiration,
+			final IClock clock) {
+		return new IExpiringCacheManager<T>() {
 			public boolean canUsePreviouslyCachedData(com.xoba.util.data.ICacheManager.IDataBrowser<T> browser,
 					Date cacheCreationDate, long size) {
-				long today = System.currentTimeMillis();
-				long created = cacheCreationDate.getTime();
-				return (today - created) < (daysExpiration * 24L * 3600L * 1000L);
+				return clock.currentTimeMillis() < getExpirationTime(cacheCreationDate);
+			}
+
+			public long getExpirationTime(Date cacheCreationDate) {
+				return addSaturated(cacheCreationDate.getTime(), expiration);
 			}
 		};
 	}
 
-	public static <T> ICacheManager<T> createMillisExpirationCacheManager(final long expiration) {
-		return new ICacheManager<T>() {
+	/**
+	 * stale-while-revalidate: data older than the soft expiration is still
+	 * returned, but recreated in the background; only data older than the hard
+	 * expiration makes callers wait
+	 * 
+	 * @param <T>
+	 * @param softExpiration
+	 *            millis
+	 * @param hardExpiration
+	 *            millis
+	 * @return
+	 */
+	public static <T> IRefreshingCacheManager<T> createStaleWhileRevalidateCacheManager(long softExpiration,
+			long hardExpiration) {
+		return createStaleWhileRevalidateCacheManager(softExpiration, hardExpiration, IClock.SYSTEM);
+	}
+
+	/**
+	 * the returned manager is also an {@link IExpiringCacheManager}, expiring
+	 * at the hard expiration
+	 */
+	public static <T> IRefreshingCacheManager<T> createStaleWhileRevalidateCacheManager(final long softExpiration,
+			final long hardExpiration, final IClock clock) {
+		if (softExpiration > hardExpiration) {
+			throw new IllegalArgumentException("soft expiration " + softExpiration + " exceeds hard expiration "
+					+ hardExpiration);
+		}
+		return new IRefreshingExpiringCacheManager<T>() {
 			public boolean canUsePreviouslyCachedData(com.xoba.util.data.ICacheManager.IDataBrowser<T> browser,
 					Date cacheCreationDate, long size) {
-				return System.currentTimeMillis() - cacheCreationDate.getTime() < expiration;
+				return clock.currentTimeMillis() < getExpirationTime(cacheCreationDate);
+			}
+
+			public boolean shouldRefresh(com.xoba.util.data.ICacheManager.IDataBrowser<T> browser,
+					Date cacheCreationDate, long size) {
+				return clock.currentTimeMillis() - cacheCreationDate.getTime() >= softExpiration;
+			}
+
+			public long getExpirationTime(Date cacheCreationDate) {
+				return addSaturated(cacheCreationDate.getTime(), hardExpiration);
 			}
 		};
 	}
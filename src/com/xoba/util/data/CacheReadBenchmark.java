@@ -0,0 +1,118 @@
+package com.xoba.util.data;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * multi-threaded read throughput of the synchronized and concurrent memory
+ * caches, doing the lookups ObjectManager does for a first-level hit
+ *
+ */
+public class CacheReadBenchmark {
+
+	private static interface ILookup {
+
+		public Object lookup(String key) throws Exception;
+
+	}
+
+	/**
+	 * check, get and date as three separate calls
+	 */
+	private static ILookup threeCalls(final ICache cache) {
+		return new ILookup() {
+			public Object lookup(String key) throws Exception {
+				if (cache.hasObjectForKey(key)) {
+					Object o = cache.getObject(key);
+					cache.getDateObjectStored(key);
+					return o;
+				} else {
+					return null;
+				}
+			}
+		};
+	}
+
+	private static ILookup singleCall(final IEntryCache cache) {
+		return new ILookup() {
+			public Object lookup(String key) throws Exception {
+				ICacheEntry e = cache.getEntry(key);
+				return e == null ? null : e.getObject();
+			}
+		};
+	}
+
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+
+		final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+		MemoryCache synced = new MemoryCache(false);
+		ConcurrentMemoryCache concurrent = new ConcurrentMemoryCache();
+		for (int i = 0; i < keys; i++) {
+			synced.storeObject("key-" + i, i);
+			concurrent.storeObject("key-" + i, i);
+		}
+
+		int max = Runtime.getRuntime().availableProcessors() * 2;
+		for (int threads = 1; threads <= Math.max(16, max); threads *= 2) {
+
+			run(threeCalls(synced), threads, keys, millis / 4);
+			run(singleCall(concurrent), threads, keys, millis / 4);
+
+			double a = run(threeCalls(synced), threads, keys, millis);
+			double b = run(singleCall(synced), threads, keys, millis);
+			double c = run(singleCall(concurrent), threads, keys, millis);
+
+			System.out.printf("threads = %2d; synchronized (3 calls) = %,13.0f; synchronized (getEntry) = %,13.0f; concurrent (getEntry) = %,13.0f lookups/sec%n",
+					threads, a, b, c);
+		}
+	}
+
+	private static double run(final ILookup lookup, int threads, final int keys, long millis) throws Exception {
+
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] deadline = new long[1];
+
+		for (int i = 0; i < threads; i++) {
+			final long seed = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(seed);
+					long count = 0;
+					Object last = null;
+					try {
+						start.await();
+						while (System.nanoTime() < deadline[0]) {
+							for (int j = 0; j < 100; j++) {
+								last = lookup.lookup("key-" + r.nextInt(keys));
+							}
+							count += 100;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						ops.addAndGet(count);
+						sink = last;
+						done.countDown();
+					}
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		long t0 = System.nanoTime();
+		deadline[0] = t0 + millis * 1000000L;
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - t0;
+
+		return ops.get() / (elapsed / 1e9);
+	}
+}
@@ -0,0 +1,159 @@
+package com.xoba.util.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * one level of an {@link ObjectManager}'s cache hierarchy, with its policies
+ * and usage statistics
+ *
+ */
+public class CacheTier {
+
+	public static enum WritePolicy {
+
+		/**
+		 * newly created data is stored here right away
+		 */
+		WRITE_THROUGH,
+
+		/**
+		 * newly created data only arrives here when the tier above evicts it
+		 */
+		WRITE_BACK
+
+	}
+
+	private final String name;
+
+	private final ICache cache;
+
+	private final WritePolicy writePolicy;
+
+	private final boolean promoteOnHit;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder(), lookupNanos = new LongAdder();
+
+	private final LongAdder stores = new LongAdder(), storeNanos = new LongAdder();
+
+	private final LongAdder promotions = new LongAdder(), demotions = new LongAdder();
+
+	/**
+	 * @param name
+	 *            for reporting
+	 * @param cache
+	 * @param writePolicy
+	 * @param promoteOnHit
+	 *            whether data found in a lower tier is copied here
+	 */
+	public CacheTier(String name, ICache cache, WritePolicy writePolicy, boolean promoteOnHit) {
+		if (cache == null) {
+			throw new IllegalArgumentException("null cache for tier " + name);
+		}
+		this.name = name;
+		this.cache = cache;
+		this.writePolicy = writePolicy;
+		this.promoteOnHit = promoteOnHit;
+	}
+
+	/**
+	 * write-through, promoting on hits
+	 */
+	public CacheTier(String name, ICache cache) {
+		this(name, cache, WritePolicy.WRITE_THROUGH, true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ICache getCache() {
+		return cache;
+	}
+
+	public WritePolicy getWritePolicy() {
+		return writePolicy;
+	}
+
+	public boolean isPromoteOnHit() {
+		return promoteOnHit;
+	}
+
+	void recordLookup(boolean hit, long nanos) {
+		if (hit) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		lookupNanos.add(nanos);
+	}
+
+	void recordStore(long nanos) {
+		stores.increment();
+		storeNanos.add(nanos);
+	}
+
+	void recordPromotion() {
+		promotions.increment();
+	}
+
+	void recordDemotion() {
+		demotions.increment();
+	}
+
+	/**
+	 * lookups finding usable data
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * lookups finding no data, or data the cache manager wouldn't accept
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public double getHitRatio() {
+		long h = getHitCount();
+		long total = h + getMissCount();
+		return total == 0 ? 0 : h / (double) total;
+	}
+
+	public double getMeanLookupMillis() {
+		long n = getHitCount() + getMissCount();
+		return n == 0 ? 0 : lookupNanos.sum() / 1e6 / n;
+	}
+
+	public long getStoreCount() {
+		return stores.sum();
+	}
+
+	public double getMeanStoreMillis() {
+		long n = getStoreCount();
+		return n == 0 ? 0 : storeNanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * objects copied here after being found in a lower tier
+	 */
+	public long getPromotionCount() {
+		return promotions.sum();
+	}
+
+	/**
+	 * objects copied here after being evicted from the tier above
+	 */
+	public long getDemotionCount() {
+		return demotions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s: %s; hits = %d; misses = %d; hit ratio = %.3f; lookup = %.3f ms; stores = %d; store = %.3f ms; promotions = %d; demotions = %d",
+				name, writePolicy, getHitCount(), getMissCount(), getHitRatio(), getMeanLookupMillis(), getStoreCount(),
+				getMeanStoreMillis(), getPromotionCount(), getDemotionCount());
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.xoba.util.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.xoba.util.LongCounter;
+
+/**
+ * compression and decompression throughput, and ratio, for each compression
+ * setting over some representative serialized payloads
+ *
+ */
+public class CompressionBenchmark {
+
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+
+		int scale = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		Map<String, byte[]> payloads = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, Object> e : createObjects(scale).entrySet()) {
+			payloads.put(e.getKey() + " (java)", serialize(new JavaSerializationCodec(), e.getValue()));
+			payloads.put(e.getKey() + " (binary)", serialize(new BinaryCodec(), e.getValue()));
+		}
+
+		List<ICompression> compressions = new ArrayList<ICompression>();
+		compressions.add(Compressions.NONE);
+		compressions.add(Compressions.LZ);
+		compressions.add(Compressions.createDeflate(1));
+		compressions.add(Compressions.createDeflate(6));
+		compressions.add(Compressions.createDeflate(9));
+		compressions.add(Compressions.GZIP);
+
+		for (Map.Entry<String, byte[]> e : payloads.entrySet()) {
+			byte[] raw = e.getValue();
+			System.out.printf("%s: %,d bytes%n", e.getKey(), raw.length);
+			for (ICompression c : compressions) {
+				// once to warm up
+				measure(c, raw);
+				double[] m = measure(c, raw);
+				System.out.printf("    %-10s ratio = %5.3f; compress = %,8.1f MB/s; decompress = %,8.1f MB/s%n", c.getName(), m[0],
+						m[1], m[2]);
+			}
+		}
+	}
+
+	private static Map<String, Object> createObjects(int scale) {
+
+		Random r = new Random(42);
+
+		Map<String, Object> out = new LinkedHashMap<String, Object>();
+
+		LongCounter<String> counter = new LongCounter<String>();
+		for (int i = 0; i < scale; i++) {
+			counter.inc("term-" + (int) Math.abs(r.nextGaussian() * scale / 10), 1 + r.nextInt(5));
+		}
+		out.put("counter", counter);
+
+		double[] walk = new double[scale];
+		for (int i = 1; i < walk.length; i++) {
+			walk[i] = walk[i - 1] + r.nextGaussian();
+		}
+		out.put("random walk", walk);
+
+		List<String[]> csv = new ArrayList<String[]>();
+		for (int i = 0; i < scale / 10; i++) {
+			csv.add(new String[] { "2011-01-" + (1 + r.nextInt(28)), "SYM" + r.nextInt(500), "" + r.nextInt(100000),
+					String.format("%.4f", 10 + r.nextDouble()) });
+		}
+		out.put("csv rows", csv);
+
+		byte[] noise = new byte[scale * 4];
+		r.nextBytes(noise);
+		HashMap<String, Object> mixed = new HashMap<String, Object>();
+		mixed.put("noise", noise);
+		out.put("random bytes", mixed);
+
+		return out;
+	}
+
+	private static byte[] serialize(ICodec codec, Object o) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		codec.serialize(o, bout);
+		return bout.toByteArray();
+	}
+
+	/**
+	 * @return ratio, compression MB/s, decompression MB/s
+	 */
+	private static double[] measure(ICompression c, byte[] raw) throws IOException {
+
+		int rounds = Math.max(1, (int) (10000000L / raw.length));
+
+		byte[] compressed = null;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(raw.length / 2);
+			OutputStream out = c.compress(bout);
+			out.write(raw);
+			out.close();
+			compressed = bout.toByteArray();
+		}
+		long t1 = System.nanoTime();
+
+		byte[] buf = new byte[65536];
+		long total = 0;
+		for (int i = 0; i < rounds; i++) {
+			InputStream in = c.decompress(new ByteArrayInputStream(compressed));
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				total += n;
+			}
+			in.close();
+		}
+		long t2 = System.nanoTime();
+
+		if (total != (long) rounds * raw.length) {
+			throw new IllegalStateException("round trip failed for " + c.getName());
+		}
+		sink += total;
+
+		double mb = rounds * raw.length / 1e6;
+		return new double[] { compressed.length / (double) raw.length, mb / ((t1 - t0) / 1e9), mb / ((t2 - t1) / 1e9) };
+	}
+}
@@ -0,0 +1,185 @@
+package com.xoba.util.data;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * the available compression formats for cached payloads
+ *
+ */
+public class Compressions {
+
+	private Compressions() {
+	}
+
+	private static final int BUFFER_SIZE = 65536;
+
+	public static final ICompression NONE = new ICompression() {
+
+		public String getName() {
+			return "none";
+		}
+
+		public OutputStream compress(OutputStream out) {
+			return out;
+		}
+
+		public InputStream decompress(InputStream in) {
+			return in;
+		}
+	};
+
+	public static final ICompression GZIP = new ICompression() {
+
+		public String getName() {
+			return "gzip";
+		}
+
+		public OutputStream compress(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+
+		public InputStream decompress(InputStream in) throws IOException {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+	};
+
+	public static final ICompression LZ = new LZCompression();
+
+	private static final String DEFLATE_PREFIX = "deflate-";
+
+	/**
+	 * zlib at the given level, from {@link Deflater#BEST_SPEED} to
+	 * {@link Deflater#BEST_COMPRESSION}
+	 *
+	 * @param level
+	 * @return
+	 */
+	public static ICompression createDeflate(final int level) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("bad deflate level: " + level);
+		}
+		return new ICompression() {
+
+			public String getName() {
+				return DEFLATE_PREFIX + level;
+			}
+
+			public OutputStream compress(OutputStream out) {
+				final Deflater deflater = new Deflater(level);
+				return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							deflater.end();
+						}
+					}
+				};
+			}
+
+			public InputStream decompress(InputStream in) {
+				final Inflater inflater = new Inflater();
+				return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							inflater.end();
+						}
+					}
+				};
+			}
+
+			@Override
+			public String toString() {
+				return getName();
+			}
+		};
+	}
+
+	/**
+	 * looks up a compression by the name it records
+	 *
+	 * @param name
+	 * @return the compression, or null if unknown
+	 */
+	public static ICompression forName(String name) {
+		if (NONE.getName().equals(name)) {
+			return NONE;
+		} else if (GZIP.getName().equals(name)) {
+			return GZIP;
+		} else if (LZ.getName().equals(name)) {
+			return LZ;
+		} else if (name.startsWith(DEFLATE_PREFIX)) {
+			try {
+				return createDeflate(Integer.parseInt(name.substring(DEFLATE_PREFIX.length())));
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * counts the bytes written through it, discarding them
+	 */
+	static final class CountingSink extends FilterOutputStream {
+
+		private long count;
+
+		public CountingSink() {
+			super(null);
+		}
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * estimates how well the given compression shrinks a sample of data
+	 *
+	 * @return compressed size over raw size
+	 */
+	public static double measureRatio(ICompression c, byte[] sample, int length) throws IOException {
+		if (length == 0) {
+			return 1;
+		}
+		CountingSink sink = new CountingSink();
+		OutputStream out = c.compress(sink);
+		out.write(sample, 0, length);
+		out.close();
+		return sink.getCount() / (double) length;
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.xoba.util.data;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * unbounded in-memory cache whose reads never block. entries are immutable,
+ * so an object and its metadata are always seen together
+ * 
+ */
+public class ConcurrentMemoryCache implements IOnHeapCache, IDatedCache {
+
+	private static final class Record implements ICacheEntry {
+
+		private final Object object;
+
+		private final Date date;
+
+		public Record(Object object, Date date) {
+			this.object = object;
+			this.date = date;
+		}
+
+		public Object getObject() {
+			return object;
+		}
+
+		public Date getDateObjectStored() {
+			return date;
+		}
+
+		public long getStoredSizeEstimate() {
+			return 0;
+		}
+	}
+
+	private final ConcurrentMap<String, Record> objects;
+
+	public ConcurrentMemoryCache() {
+		this(16, 1);
+	}
+
+	/**
+	 * @param initialCapacity
+	 * @param concurrencyLevel
+	 *            estimated number of concurrently updating threads
+	 */
+	public ConcurrentMemoryCache(int initialCapacity, int concurrencyLevel) {
+		objects = new ConcurrentHashMap<String, Record>(initialCapacity, 0.75f, concurrencyLevel);
+	}
+
+	public ICacheEntry getEntry(String key) {
+		return objects.get(key);
+	}
+
+	public Date getDateObjectStored(String key) {
+		Record rec = objects.get(key);
+		return rec == null ? null : rec.date;
+	}
+
+	public long getStoredSizeEstimate(String key) {
+		return 0;
+	}
+
+	public Object getObject(String key) {
+		Record rec = objects.get(key);
+		return rec == null ? null : rec.object;
+	}
+
+	public boolean hasObjectForKey(String key) {
+		return objects.containsKey(key);
+	}
+
+	public void storeObject(String key, Object o) {
+		objects.put(key, new Record(o, new Date()));
+	}
+
+	public void storeObject(String key, Object o, Date stored) {
+		objects.put(key, new Record(o, stored));
+	}
+
+	public boolean removeObject(String key) {
+		objects.remove(key);
+		return true;
+	}
+
+	/**
+	 * weakly consistent and unordered: reflects some of the changes made
+	 * during iteration
+	 */
+	public Iterator<String> iterator() {
+		return Collections.unmodifiableSet(objects.keySet()).iterator();
+	}
+
+	public int size() {
+		return objects.size();
+	}
+
+}
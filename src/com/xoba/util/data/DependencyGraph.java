@@ -0,0 +1,151 @@
+package com.xoba.util.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * which managed data is computed from which, as last declared by each
+ * dependent
+ *
+ */
+class DependencyGraph {
+
+	// concurrent, so that data without dependencies can be checked for cheaply
+	private final Map<String, Set<String>> upstream = new ConcurrentHashMap<String, Set<String>>();
+
+	private final Map<String, Set<String>> downstream = new HashMap<String, Set<String>>();
+
+	// how to recompute each dependent
+	private final Map<String, IManagedData<?>> data = new HashMap<String, IManagedData<?>>();
+
+	/**
+	 * records or replaces the data's upstream IDs
+	 */
+	public void declare(IDependentManagedData<?> d) {
+		if (d.getUpstreamIDs().isEmpty() && !upstream.containsKey(d.getID())) {
+			return;
+		}
+		synchronized (this) {
+			update(d);
+		}
+	}
+
+	private void update(IDependentManagedData<?> d) {
+		String id = d.getID();
+		Set<String> ups = new HashSet<String>(d.getUpstreamIDs());
+		Set<String> old = upstream.get(id);
+		if (ups.equals(old == null ? Collections.<String> emptySet() : old)) {
+			if (!ups.isEmpty()) {
+				data.put(id, d);
+			}
+			return;
+		}
+		if (old != null) {
+			for (String u : old) {
+				Set<String> downs = downstream.get(u);
+				downs.remove(id);
+				if (downs.isEmpty()) {
+					downstream.remove(u);
+				}
+			}
+		}
+		if (ups.isEmpty()) {
+			upstream.remove(id);
+			data.remove(id);
+		} else {
+			upstream.put(id, ups);
+			data.put(id, d);
+			for (String u : ups) {
+				Set<String> downs = downstream.get(u);
+				if (downs == null) {
+					downs = new HashSet<String>();
+					downstream.put(u, downs);
+				}
+				downs.add(id);
+			}
+		}
+	}
+
+	/**
+	 * @return everything computed, directly or not, from the given ID
+	 */
+	public synchronized Set<String> getDependents(String id) {
+		Set<String> out = new HashSet<String>();
+		LinkedList<String> todo = new LinkedList<String>();
+		todo.add(id);
+		while (!todo.isEmpty()) {
+			Set<String> downs = downstream.get(todo.removeFirst());
+			if (downs != null) {
+				for (String d : downs) {
+					if (!d.equals(id) && out.add(d)) {
+						todo.add(d);
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	public synchronized IManagedData<?> getData(String id) {
+		return data.get(id);
+	}
+
+	/**
+	 * orders the IDs so that each wave only depends on earlier ones, within
+	 * the given set; members of a cycle end up together in the last wave
+	 */
+	public synchronized List<List<String>> getWaves(Collection<String> ids) {
+		Set<String> remaining = new HashSet<String>(ids);
+		Map<String, Integer> pending = new HashMap<String, Integer>();
+		List<String> wave = new ArrayList<String>();
+		for (String id : remaining) {
+			int n = 0;
+			Set<String> ups = upstream.get(id);
+			if (ups != null) {
+				for (String u : ups) {
+					if (remaining.contains(u)) {
+						n++;
+					}
+				}
+			}
+			pending.put(id, n);
+			if (n == 0) {
+				wave.add(id);
+			}
+		}
+		List<List<String>> waves = new ArrayList<List<String>>();
+		while (!wave.isEmpty()) {
+			waves.add(wave);
+			remaining.removeAll(wave);
+			List<String> next = new ArrayList<String>();
+			for (String id : wave) {
+				Set<String> downs = downstream.get(id);
+				if (downs != null) {
+					for (String d : downs) {
+						if (remaining.contains(d)) {
+							int n = pending.get(d) - 1;
+							pending.put(d, n);
+							if (n == 0) {
+								next.add(d);
+							}
+						}
+					}
+				}
+			}
+			wave = next;
+		}
+		if (!remaining.isEmpty()) {
+			waves.add(new ArrayList<String>(remaining));
+		}
+		return waves;
+	}
+
+}
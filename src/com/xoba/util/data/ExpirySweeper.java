@@ -0,0 +1,315 @@
+package com.xoba.util.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.xoba.util.ICanClose;
+import com.xoba.util.ILogger;
+import com.xoba.util.LogFactory;
+
+/**
+ * removes expired entries from caches ahead of anyone asking for them, so
+ * that they don't keep occupying memory and disk.
+ *
+ * keys are queued by expiration time in buckets of a fixed width, and each
+ * sweep takes just the buckets that have come due, without looking at keys
+ * that haven't. removals, which for file caches are disk I/O, are spread over
+ * a bounded number of threads.
+ *
+ * a key scheduled again replaces its earlier expiration time, which is then
+ * ignored when its bucket comes due
+ *
+ */
+public class ExpirySweeper implements ICanClose {
+
+	private static final ILogger logger = LogFactory.getDefault().create();
+
+	/**
+	 * removes expired keys, for instance under the same lock their objects
+	 * are stored with
+	 *
+	 */
+	public static interface IRemover {
+
+		/**
+		 * @param key
+		 *            no longer scheduled; if it's been scheduled again by the
+		 *            time it's locked, it should be kept
+		 * @return stored size of what was removed, as estimated by the caches,
+		 *         or -1 if the key was kept
+		 * @throws Exception
+		 */
+		public long remove(String key) throws Exception;
+
+	}
+
+	private final IRemover remover;
+
+	private final IClock clock;
+
+	private final long bucketMillis;
+
+	private final ExecutorService io;
+
+	// latest expiration time by key
+	private final ConcurrentMap<String, Long> expirations = new ConcurrentHashMap<String, Long>();
+
+	// guarded by this
+	private final SortedMap<Long, Set<String>> buckets = new TreeMap<Long, Set<String>>();
+
+	private final LongAdder sweeps = new LongAdder(), removed = new LongAdder(), reclaimedBytes = new LongAdder(),
+			failures = new LongAdder();
+
+	private ScheduledExecutorService timer;
+
+	/**
+	 * @param caches
+	 *            from which expired keys are removed, without any locking
+	 */
+	public ExpirySweeper(List<ICache> caches, IClock clock, long bucketMillis, int ioConcurrency) {
+		this(createRemover(caches), clock, bucketMillis, ioConcurrency);
+	}
+
+	/**
+	 * @param remover
+	 * @param clock
+	 * @param bucketMillis
+	 *            granularity of expiration; keys are removed up to this long
+	 *            after they expire
+	 * @param ioConcurrency
+	 *            most removals in progress at once
+	 */
+	public ExpirySweeper(IRemover remover, IClock clock, long bucketMillis, int ioConcurrency) {
+		if (bucketMillis < 1) {
+			throw new IllegalArgumentException("bad bucket width: " + bucketMillis);
+		}
+		if (ioConcurrency < 1) {
+			throw new IllegalArgumentException("bad concurrency: " + ioConcurrency);
+		}
+		this.remover = remover;
+		this.clock = clock;
+		this.bucketMillis = bucketMillis;
+		this.io = Executors.newFixedThreadPool(ioConcurrency, createDaemonThreadFactory("expiry sweeper I/O"));
+	}
+
+	private static IRemover createRemover(List<ICache> caches) {
+		final List<ICache> copy = new ArrayList<ICache>(caches);
+		return new IRemover() {
+			public long remove(String key) throws Exception {
+				return removeFrom(copy, key);
+			}
+		};
+	}
+
+	/**
+	 * removes the key from each cache, carrying on past failures
+	 *
+	 * @return estimated size of what was removed
+	 * @throws Exception
+	 *             the first failure, once every cache has been tried
+	 */
+	static long removeFrom(Collection<ICache> caches, String key) throws Exception {
+		long reclaimed = 0;
+		Exception failure = null;
+		for (ICache c : caches) {
+			try {
+				if (c.hasObjectForKey(key)) {
+					long size = c.getStoredSizeEstimate(key);
+					if (c.removeObject(key)) {
+						reclaimed += size;
+					}
+				}
+			} catch (Exception e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return reclaimed;
+	}
+
+	private static ThreadFactory createDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	public IClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * @param key
+	 * @param expiresAt
+	 *            millis according to this sweeper's clock
+	 */
+	public void schedule(String key, long expiresAt) {
+		Long previous = expirations.put(key, expiresAt);
+		if (previous != null && previous == expiresAt) {
+			return;
+		}
+		// rounded up, so that everything in a bucket has expired once it's due
+		long bucket = expiresAt / bucketMillis + (expiresAt % bucketMillis == 0 ? 0 : 1);
+		synchronized (this) {
+			Set<String> keys = buckets.get(bucket);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				buckets.put(bucket, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * for keys removed by other means
+	 *
+	 * @param key
+	 */
+	public void cancel(String key) {
+		expirations.remove(key);
+	}
+
+	/**
+	 * @return whether the key has an expiration time that hasn't yet been
+	 *         swept
+	 */
+	public boolean isScheduled(String key) {
+		return expirations.containsKey(key);
+	}
+
+	/**
+	 * sweeps in the background every bucket's width
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(createDaemonThreadFactory("expiry sweeper"));
+		timer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sweep();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					logger.warn("sweep failed", e);
+				}
+			}
+		}, bucketMillis, bucketMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * removes every key that has expired by now, waiting for the removals to
+	 * finish
+	 *
+	 * @return number of keys removed
+	 * @throws InterruptedException
+	 */
+	public int sweep() throws InterruptedException {
+		long now = clock.currentTimeMillis();
+		List<String> due = new ArrayList<String>();
+		synchronized (this) {
+			SortedMap<Long, Set<String>> head = buckets.headMap(now / bucketMillis + 1);
+			for (Iterator<Set<String>> it = head.values().iterator(); it.hasNext();) {
+				due.addAll(it.next());
+				it.remove();
+			}
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final String key : due) {
+			Long expiresAt = expirations.get(key);
+			// unless since rescheduled or cancelled
+			if (expiresAt != null && expiresAt <= now && expirations.remove(key, expiresAt)) {
+				tasks.add(new Callable<Void>() {
+					public Void call() {
+						remove(key);
+						return null;
+					}
+				});
+			}
+		}
+		io.invokeAll(tasks);
+		sweeps.increment();
+		if (tasks.size() > 0) {
+			logger.debugf("swept %,d expired keys", tasks.size());
+		}
+		return tasks.size();
+	}
+
+	private void remove(String key) {
+		try {
+			long size = remover.remove(key);
+			if (size >= 0) {
+				reclaimedBytes.add(size);
+				removed.increment();
+			}
+		} catch (Exception e) {
+			failures.increment();
+			logger.warnf("can't remove expired %s: %s", key, e);
+		}
+	}
+
+	/**
+	 * @return keys scheduled and not yet removed
+	 */
+	public int getPendingCount() {
+		return expirations.size();
+	}
+
+	public long getSweepCount() {
+		return sweeps.sum();
+	}
+
+	public long getRemovedCount() {
+		return removed.sum();
+	}
+
+	/**
+	 * stored sizes of what's been removed, as estimated by the caches
+	 */
+	public long getReclaimedBytes() {
+		return reclaimedBytes.sum();
+	}
+
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	public synchronized void close() {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+		io.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("pending = %,d; sweeps = %,d; removed = %,d; reclaimed = %,d bytes; failures = %,d",
+				getPendingCount(), getSweepCount(), getRemovedCount(), getReclaimedBytes(), getFailureCount());
+	}
+
+}
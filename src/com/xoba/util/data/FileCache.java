@@ -2,61 +2,972 @@ package com.xoba.util.data;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Arrays;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.xoba.util.ICanClose;
 import com.xoba.util.ILogger;
 import com.xoba.util.LogFactory;
+import com.xoba.util.MraUtils;
 
-public class FileCache implements ICache {
+/**
+ * one file per key, each starting with a small header naming the codec and
+ * compression used for the payload. files from before the header was
+ * introduced are still readable
+ *
+ */
+public class FileCache implements ILockableCache, IMetadataCache, IDatedCache, IStreamingCache {
 
 	private static final ILogger logger = LogFactory.getDefault().create();
 
 	private final File dir;
 
-	private final boolean compressed;
+	private final ICompression compression;
 
-	public FileCache(File dir, boolean compressed) {
+	private final ICodec codec;
+
+	private final Layout layout;
+
+	private final Map<String, ICodec> codecs = new LinkedHashMap<String, ICodec>();
+
+	/**
+	 * how hard to try to get stored objects onto disk before returning
+	 * 
+	 */
+	public static enum Durability {
+
+		/**
+		 * atomic with respect to readers, but a crash may lose recent writes;
+		 * best for bulk loads
+		 */
+		NONE,
+
+		/**
+		 * forces each file, and its directory entry, to disk
+		 */
+		FSYNC;
+
+	}
+
+	/**
+	 * how files are named and arranged under the cache directory
+	 * 
+	 */
+	public static enum Layout {
+
+		/**
+		 * each key is the name of a file directly under the directory
+		 */
+		FLAT,
+
+		/**
+		 * files are named by a hash of their key, and spread over two levels
+		 * of 256 subdirectories each; the key is kept in the file's header
+		 */
+		HASHED;
+
+	}
+
+	/**
+	 * names of temporary and lock files, which aren't keys, start with this
+	 */
+	private static final String INTERNAL_PREFIX = ".fc";
+
+	private static final String TEMP_PREFIX = INTERNAL_PREFIX + "tmp-";
+
+	private static final String LOCK_FILE = INTERNAL_PREFIX + "locks";
+
+	private static final String BLOBS_DIR = INTERNAL_PREFIX + "blobs";
+
+	private InterProcessLockTable lockTable;
+
+	private final LongAdder bytesRead = new LongAdder(), bytesWritten = new LongAdder();
+
+	private Durability durability = Durability.FSYNC;
+
+	private int adaptiveSampleSize;
+
+	private double adaptiveMaxRatio;
+
+	private boolean deduplicating;
+
+	// reference counts by blob name, loaded on first use; guarded by this
+	private Map<String, Integer> blobReferences;
+
+	// guarded by this; whether some thread is loading blobReferences
+	private boolean countingBlobReferences;
+
+	private final IDLockManager keyLocks = new IDLockManager();
+
+	public FileCache(File dir, ICodec codec, ICompression compression, Layout layout) {
 		this.dir = dir;
 		dir.mkdirs();
-		this.compressed = compressed;
+		this.compression = compression;
+		this.codec = codec;
+		this.layout = layout;
+		registerCodec(new JavaSerializationCodec());
+		registerCodec(new BinaryCodec());
+		registerCodec(codec);
+	}
+
+	public FileCache(File dir, ICodec codec, ICompression compression) {
+		this(dir, codec, compression, Layout.FLAT);
+	}
+
+	public FileCache(File dir, boolean compressed, ICodec codec) {
+		this(dir, codec, compressed ? Compressions.GZIP : Compressions.NONE);
+	}
+
+	public FileCache(File dir, boolean compressed) {
+		this(dir, compressed, new JavaSerializationCodec());
 	}
 
 	public FileCache(File dir) {
 		this(dir, false);
 	}
 
-	private static void putObjectToFile(File file, String objectDescription, Object o, boolean compressed)
-			throws Exception {
-		logger.debugf("putting object \"" + objectDescription + "\" to " + file);
-		ObjectOutputStream out = getOutput(file, compressed);
+	/**
+	 * makes a codec available for reading; objects written with a codec that
+	 * isn't registered, or with another version of it, are treated as stale
+	 *
+	 * @param c
+	 */
+	public synchronized void registerCodec(ICodec c) {
+		codecs.put(c.getName(), c);
+	}
+
+	/**
+	 * stores payloads uncompressed when their first sampleSize bytes don't
+	 * compress to at most maxRatio of their size, saving the cost of
+	 * compressing incompressible data and of decompressing it on every read
+	 * 
+	 * @param sampleSize
+	 *            zero to always compress
+	 * @param maxRatio
+	 */
+	public synchronized void setAdaptiveCompression(int sampleSize, double maxRatio) {
+		this.adaptiveSampleSize = sampleSize;
+		this.adaptiveMaxRatio = maxRatio;
+	}
+
+	/**
+	 * when enabled, {@link #lockKey(String)} coordinates with other processes
+	 * sharing this directory, so that ObjectManagers in different JVMs create
+	 * each object only once
+	 * 
+	 * @param enabled
+	 * @throws IOException
+	 */
+	public synchronized void setInterProcessLocking(boolean enabled) throws IOException {
+		lockTable = enabled ? InterProcessLockTable.forFile(new File(dir, LOCK_FILE)) : null;
+	}
+
+	/**
+	 * when enabled, payloads are stored once per distinct content, as blobs
+	 * named by their hash, and each key's file just refers to its blob.
+	 * objects are serialized once to be hashed before anything is written, so
+	 * storing a payload that's already present writes only the small key file.
+	 * 
+	 * blobs are deleted once nothing refers to them; but with inter-process
+	 * locking enabled, other processes' references aren't known, and
+	 * {@link #deleteUnreferencedBlobs(long)} has to be used instead
+	 * 
+	 * @param enabled
+	 */
+	public synchronized void setDeduplication(boolean enabled) {
+		this.deduplicating = enabled;
+	}
+
+	public synchronized boolean isDeduplicating() {
+		return deduplicating;
+	}
+
+	public ICanClose lockKey(String key) throws IOException, InterruptedException {
+		InterProcessLockTable t;
+		synchronized (this) {
+			t = lockTable;
+		}
+		return t == null ? null : t.lock(key);
+	}
+
+	/**
+	 * bytes of object files read, including headers
+	 */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * bytes of object files written, including headers
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public synchronized void setDurability(Durability durability) {
+		this.durability = durability;
+	}
+
+	public synchronized Durability getDurability() {
+		return durability;
+	}
+
+	private synchronized ICodec getCodec(FileCacheHeader header, File file) throws InvalidClassException {
+		ICodec c = codecs.get(header.getCodecName());
+		if (c == null || c.getVersion() != header.getCodecVersion()) {
+			throw new InvalidClassException(header.getCodecName(), "stale cache entry " + file + ": stored with codec version "
+					+ header.getCodecVersion() + ", have " + (c == null ? "no such codec" : "version " + c.getVersion()));
+		}
+		return c;
+	}
+
+	/**
+	 * writes the header and then the compressed payload; when compression is
+	 * adaptive, the header isn't written until enough of the payload has been
+	 * seen to choose the compression
+	 */
+	private final class PayloadOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private final String key, description;
+
+		private final long created;
+
+		private final Map<String, String> tags;
+
+		private final double maxRatio;
+
+		private final MessageDigest digest;
+
+		private long length;
+
+		private byte[] sample;
+
+		private int sampled;
+
+		private OutputStream target;
+
+		private final byte[] single = new byte[1];
+
+		public PayloadOutputStream(OutputStream out, String key, String description, Map<String, String> tags,
+				long created) throws IOException {
+			this.out = out;
+			this.key = key;
+			this.description = description;
+			this.tags = tags;
+			this.created = created;
+			try {
+				this.digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+			synchronized (FileCache.this) {
+				this.maxRatio = adaptiveMaxRatio;
+				if (adaptiveSampleSize > 0 && compression != Compressions.NONE) {
+					sample = new byte[adaptiveSampleSize];
+				} else {
+					start(compression);
+				}
+			}
+		}
+
+		private void start(ICompression chosen) throws IOException {
+			FileCacheHeader header = new FileCacheHeader(codec.getName(), codec.getVersion(), codec.getContentType(),
+					chosen.getName(), created, description, key, tags, 0);
+			header.write(new DataOutputStream(out));
+			target = chosen.compress(out);
+		}
+
+		private void decide() throws IOException {
+			double ratio = Compressions.measureRatio(compression, sample, sampled);
+			start(ratio <= maxRatio ? compression : Compressions.NONE);
+			target.write(sample, 0, sampled);
+			sample = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			digest.update(b, off, len);
+			length += len;
+			if (sample != null) {
+				int n = Math.min(len, sample.length - sampled);
+				System.arraycopy(b, off, sample, sampled, n);
+				sampled += n;
+				off += n;
+				len -= n;
+				if (sampled == sample.length) {
+					decide();
+				}
+			}
+			if (len > 0) {
+				target.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (sample != null) {
+				decide();
+			}
+			target.close();
+		}
+
+		/**
+		 * serialized length, once closed
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * MD5 of the serialized object, once closed
+		 */
+		public byte[] getHash() {
+			return digest.digest();
+		}
+	}
+
+	private IFileWriter createObjectWriter(final String key, final String objectDescription,
+			final Map<String, String> tags, final Object o, final long created) {
+		return new IFileWriter() {
+			public void write(FileOutputStream fout) throws Exception {
+				OutputStream out = createNonClosingStream(fout);
+				PayloadOutputStream payload = new PayloadOutputStream(out, key, objectDescription, tags, created);
+				// codecs may write a byte at a time; each write to the payload
+				// updates the digest and compressor
+				OutputStream buffered = new BufferedOutputStream(payload, 8192);
+				codec.serialize(o, buffered);
+				buffered.close();
+				FileCacheHeader.patch(fout.getChannel(), payload.getLength(), payload.getHash());
+			}
+		};
+	}
+
+	/**
+	 * discards what's written, keeping just its length and MD5
+	 */
+	private static final class HashingOutputStream extends OutputStream {
+
+		private final MessageDigest digest;
+
+		private long length;
+
+		public HashingOutputStream() throws NoSuchAlgorithmException {
+			this.digest = MessageDigest.getInstance("MD5");
+		}
+
+		@Override
+		public void write(int b) {
+			digest.update((byte) b);
+			length++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+			length += len;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public byte[] getHash() {
+			return digest.digest();
+		}
+	}
+
+	private void storeDeduplicated(final String key, Object o, final String description,
+			final Map<String, String> tags, final long created) throws Exception {
+		final HashingOutputStream hashing = new HashingOutputStream();
+		OutputStream buffered = new BufferedOutputStream(hashing, 8192);
+		codec.serialize(o, buffered);
+		buffered.close();
+		final byte[] hash = hashing.getHash();
+		String blob = MraUtils.convertToHex(hash);
+
+		// referenced before it's written, so it can't be deleted meanwhile
+		acquireBlob(blob);
+		boolean referenced = false;
+		try {
+			File blobFile = getBlobFile(blob);
+			if (blobFile.exists()) {
+				logger.debugf("already have blob %s for %s", blob, key);
+			} else {
+				logger.debugf("putting blob %s for %s", blob, key);
+				blobFile.getParentFile().mkdirs();
+				writeAtomically(blobFile, createObjectWriter(blob, description, null, o, created));
+			}
+			writeKeyFile(key, new IFileWriter() {
+				public void write(FileOutputStream fout) throws Exception {
+					DataOutputStream out = new DataOutputStream(createNonClosingStream(fout));
+					new FileCacheHeader(codec.getName(), codec.getVersion(), codec.getContentType(), Compressions.NONE
+							.getName(), created, description, key, tags,
+							FileCacheHeader.FLAG_REFERENCE).write(out);
+					out.close();
+					FileCacheHeader.patch(fout.getChannel(), hashing.getLength(), hash);
+				}
+			});
+			referenced = true;
+		} finally {
+			if (!referenced) {
+				releaseBlob(blob);
+			}
+		}
+	}
+
+	private File getBlobFile(String blob) {
+		return new File(new File(new File(dir, BLOBS_DIR), blob.substring(0, 2)), blob);
+	}
+
+	private boolean hasBlobs() {
+		return new File(dir, BLOBS_DIR).exists();
+	}
+
+	/**
+	 * @return name of the blob the file refers to, or null if it doesn't
+	 *         refer to one
+	 */
+	private static String getReferencedBlob(File file) {
+		try {
+			FileCacheHeader header = readHeader(file);
+			return header != null && header.isReference() ? MraUtils.convertToHex(header.getContentHash()) : null;
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warnf("can't read header of %s: %s", file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * writes the file for a key, releasing any blob that its previous file
+	 * referred to
+	 */
+	private void writeKeyFile(String key, IFileWriter writer) throws Exception {
+		File file = getFileForKey(key);
+		if (!hasBlobs()) {
+			writeAtomically(file, writer);
+			return;
+		}
+		getBlobReferences();
+		keyLocks.lockID(key);
+		try {
+			String previous = getReferencedBlob(file);
+			writeAtomically(file, writer);
+			if (previous != null) {
+				releaseBlob(previous);
+			}
+		} finally {
+			keyLocks.unlockID(key);
+		}
+	}
+
+	/**
+	 * the reference counts, counted on first use without holding this
+	 * object's monitor, since that reads every key's header; other threads
+	 * needing them meanwhile wait. they're loaded before any file which may
+	 * refer to a blob is changed, so that counting can't miss or repeat a
+	 * change
+	 * 
+	 * @return the counts, only to be used while synchronized on this
+	 */
+	private Map<String, Integer> getBlobReferences() {
+		synchronized (this) {
+			boolean interrupted = false;
+			try {
+				while (countingBlobReferences) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (blobReferences != null) {
+				return blobReferences;
+			}
+			countingBlobReferences = true;
+		}
+		Map<String, Integer> counts = null;
+		try {
+			counts = countBlobReferences();
+			return counts;
+		} finally {
+			synchronized (this) {
+				countingBlobReferences = false;
+				blobReferences = counts;
+				notifyAll();
+			}
+		}
+	}
+
+	private Map<String, Integer> countBlobReferences() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		Iterator<String> it = iterator();
+		while (it.hasNext()) {
+			String blob = getReferencedBlob(getFileForKey(it.next()));
+			if (blob != null) {
+				Integer n = counts.get(blob);
+				counts.put(blob, n == null ? 1 : n + 1);
+			}
+		}
+		return counts;
+	}
+
+	private void acquireBlob(String blob) {
+		Map<String, Integer> counts = getBlobReferences();
+		synchronized (this) {
+			Integer n = counts.get(blob);
+			counts.put(blob, n == null ? 1 : n + 1);
+		}
+	}
+
+	private void releaseBlob(String blob) {
+		Map<String, Integer> counts = getBlobReferences();
+		synchronized (this) {
+			Integer n = counts.get(blob);
+			if (n != null && n > 1) {
+				counts.put(blob, n - 1);
+				return;
+			}
+			counts.remove(blob);
+			if (lockTable == null) {
+				File blobFile = getBlobFile(blob);
+				if (blobFile.delete()) {
+					logger.debugf("deleted unreferenced blob %s", blob);
+				}
+			}
+		}
+	}
+
+	/**
+	 * deletes blobs which no key refers to, for directories shared by several
+	 * processes, where blobs aren't deleted as their last reference goes
+	 * 
+	 * @param olderThanMillis
+	 *            age beyond which no live writer could still be about to refer
+	 *            to a blob it has just written
+	 * @return number of blobs deleted
+	 */
+	public int deleteUnreferencedBlobs(long olderThanMillis) {
+		long cutoff = System.currentTimeMillis() - olderThanMillis;
+		Map<String, Integer> counts = countBlobReferences();
+		Map<String, Integer> live = getBlobReferences();
+		int count = 0;
+		synchronized (this) {
+			File[] subdirs = new File(dir, BLOBS_DIR).listFiles();
+			if (subdirs == null) {
+				return 0;
+			}
+			for (File subdir : subdirs) {
+				File[] blobs = subdir.listFiles();
+				if (blobs == null) {
+					continue;
+				}
+				for (File f : blobs) {
+					String blob = f.getName();
+					if (live.containsKey(blob) || counts.containsKey(blob)) {
+						continue;
+					}
+					if (f.lastModified() < cutoff && f.delete()) {
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private static interface IFileWriter {
+
+		public void write(FileOutputStream fout) throws Exception;
+
+	}
+
+	/**
+	 * buffered, and closing it flushes through to fout, but leaves it open
+	 */
+	private static OutputStream createNonClosingStream(FileOutputStream fout) {
+		return new BufferedOutputStream(new FilterOutputStream(fout) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		}, 65536);
+	}
+
+	/**
+	 * writes to a temporary file, which is then renamed into place; readers
+	 * never see a partly written file
+	 */
+	private void writeAtomically(File file, IFileWriter writer) throws Exception {
+		Durability d = getDurability();
+		if (layout == Layout.HASHED) {
+			file.getParentFile().mkdirs();
+		}
+		// always at the top, where it's easy to find if abandoned; fixed
+		// length, since keys can already be as long as names may be
+		File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+		boolean moved = false;
+		try {
+			FileOutputStream fout = new FileOutputStream(temp);
+			try {
+				writer.write(fout);
+				bytesWritten.add(fout.getChannel().size());
+				if (d == Durability.FSYNC) {
+					fout.getChannel().force(true);
+				}
+			} finally {
+				fout.close();
+			}
+			moveIntoPlace(temp, file);
+			moved = true;
+			if (d == Durability.FSYNC) {
+				forceDirectory(file.getParentFile());
+			}
+		} finally {
+			if (!moved && temp.exists() && !temp.delete()) {
+				logger.warnf("can't delete temporary file %s", temp);
+			}
+		}
+	}
+
+	private static final int CHUNKS_MAGIC = 0x58464343;
+
+	// chunk count, table offset, magic
+	private static final int CHUNKS_TRAILER_LENGTH = 4 + 8 + 4;
+
+	/**
+	 * each chunk is serialized and compressed on its own, with their offsets
+	 * in a table at the end, so that any one can be read without the others
+	 */
+	public void storeChunks(String key, Iterator<?> chunks) throws Exception {
+		storeChunks(key, chunks, new Date());
+	}
+
+	/**
+	 * @param stored
+	 *            recorded as when the object was stored
+	 */
+	public void storeChunks(final String key, final Iterator<?> chunks, final Date stored) throws Exception {
+		logger.debugf("putting chunks to %s", getFileForKey(key));
+		writeKeyFile(key, new IFileWriter() {
+			public void write(FileOutputStream fout) throws Exception {
+				ICompression c;
+				synchronized (FileCache.this) {
+					c = compression;
+				}
+				DataOutputStream out = new DataOutputStream(createNonClosingStream(fout));
+				new FileCacheHeader(codec.getName(), codec.getVersion(), codec.getContentType(), c.getName(), stored
+						.getTime(), "chunks stored by " + FileCache.class, key, null,
+						FileCacheHeader.FLAG_CHUNKED).write(out);
+
+				MessageDigest digest = MessageDigest.getInstance("MD5");
+				long payloadLength = 0;
+				List<Long> offsets = new ArrayList<Long>();
+				ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+				// size() is an int, and saturates past 2gb
+				long position = out.size();
+				while (chunks.hasNext()) {
+					serialized.reset();
+					codec.serialize(chunks.next(), serialized);
+					byte[] raw = serialized.toByteArray();
+					digest.update(raw);
+					payloadLength += raw.length;
+
+					compressed.reset();
+					OutputStream cout = c.compress(compressed);
+					cout.write(raw);
+					cout.close();
+
+					offsets.add(position);
+					compressed.writeTo(out);
+					position += compressed.size();
+				}
+
+				long tableOffset = position;
+				for (long offset : offsets) {
+					out.writeLong(offset);
+				}
+				out.writeLong(tableOffset);
+				out.writeInt(offsets.size());
+				out.writeLong(tableOffset);
+				out.writeInt(CHUNKS_MAGIC);
+				out.close();
+
+				FileCacheHeader.patch(fout.getChannel(), payloadLength, digest.digest());
+			}
+		});
+	}
+
+	public IChunkCursor openChunks(final String key) throws Exception {
+		final File file = getFileForKey(key);
+		final FileCacheHeader header;
+		try {
+			header = readHeader(file);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		if (header != null && header.getKey() != null && !header.getKey().equals(key)) {
+			throw new StreamCorruptedException(file + " holds \"" + header.getKey() + "\", not \"" + key + "\"");
+		}
+		if (header == null || !header.isChunked()) {
+			return new AbstractChunkCursor() {
+				public int getChunkCount() {
+					return 1;
+				}
+
+				public Object getChunk(int n) throws Exception {
+					if (n != 0) {
+						throw new IndexOutOfBoundsException("chunk " + n + " of 1");
+					}
+					return getObjectFromFile(file, key);
+				}
+
+				public void close() {
+				}
+			};
+		}
+
+		final ICodec c = getCodec(header, file);
+		final ICompression decompression = Compressions.forName(header.getCompression());
+		if (decompression == null) {
+			throw new StreamCorruptedException("unknown compression for " + file + ": " + header.getCompression());
+		}
+
+		final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		boolean opened = false;
+		try {
+			long size = ch.size();
+			ByteBuffer trailer = readFully(ch, size - CHUNKS_TRAILER_LENGTH, CHUNKS_TRAILER_LENGTH);
+			final int count = trailer.getInt();
+			long tableOffset = trailer.getLong();
+			if (trailer.getInt() != CHUNKS_MAGIC || count < 0 || tableOffset + 8L * (count + 1) + CHUNKS_TRAILER_LENGTH != size) {
+				throw new StreamCorruptedException("bad chunk table in " + file);
+			}
+			// the last offset marks the end of the last chunk
+			final long[] offsets = new long[count + 1];
+			readFully(ch, tableOffset, 8 * offsets.length).asLongBuffer().get(offsets);
+			opened = true;
+
+			return new AbstractChunkCursor() {
+				public int getChunkCount() {
+					return count;
+				}
+
+				public Object getChunk(int n) throws Exception {
+					if (n < 0 || n >= count) {
+						throw new IndexOutOfBoundsException("chunk " + n + " of " + count);
+					}
+					ByteBuffer buf = readFully(ch, offsets[n], (int) (offsets[n + 1] - offsets[n]));
+					bytesRead.add(buf.capacity());
+					return c.deserialize(decompression.decompress(new ByteArrayInputStream(buf.array())));
+				}
+
+				public void close() throws IOException {
+					ch.close();
+				}
+			};
+		} finally {
+			if (!opened) {
+				ch.close();
+			}
+		}
+	}
+
+	/**
+	 * chunks read through {@link #getObject(String)} all come back at once, in
+	 * a list
+	 */
+	private List<Object> getAllChunks(String key) throws Exception {
+		IChunkCursor cursor = openChunks(key);
 		try {
-			out.writeObject(new Date());
-			out.writeObject(objectDescription);
-			out.writeObject(o);
+			List<Object> list = new ArrayList<Object>(cursor.getChunkCount());
+			for (int i = 0; i < cursor.getChunkCount(); i++) {
+				list.add(cursor.getChunk(i));
+			}
+			return list;
 		} finally {
-			out.close();
+			cursor.close();
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private static <T> T getObjectFromFile(File file, boolean compressed) throws Exception {
-		ObjectInputStream in = getInput(file, compressed);
+	private static ByteBuffer readFully(FileChannel ch, long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, position + buf.position()) < 0) {
+				throw new EOFException("truncated at " + (position + buf.position()));
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	private static abstract class AbstractChunkCursor implements IChunkCursor {
+
+		public Iterator<Object> iterator() {
+			return new Iterator<Object>() {
+
+				private int next;
+
+				public boolean hasNext() {
+					return next < getChunkCount();
+				}
+
+				public Object next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					try {
+						return getChunk(next++);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	private static void moveIntoPlace(File from, File to) throws IOException {
 		try {
-			in.readObject();
-			in.readObject();
-			Object o = in.readObject();
-			return (T) o;
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * makes a rename durable; not possible on every platform, so best effort
+	 */
+	private static void forceDirectory(File dir) {
+		try {
+			FileChannel chan = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			try {
+				chan.force(true);
+			} finally {
+				chan.close();
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * @return the header, or null for files from before headers existed; in
+	 *         either case, the stream is left positioned at the payload
+	 */
+	private static FileCacheHeader readHeader(InputStream in) throws IOException {
+		in.mark(4);
+		DataInputStream din = new DataInputStream(in);
+		int magic = din.readInt();
+		if (magic == FileCacheHeader.MAGIC) {
+			return FileCacheHeader.readAfterMagic(din);
+		} else {
+			in.reset();
+			return null;
+		}
+	}
+
+	private static FileCacheHeader readHeader(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 4096);
+		try {
+			return readHeader(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private Object getObjectFromFile(File file, String key) throws Exception {
+		final FileInputStream fin = new FileInputStream(file);
+		InputStream in = new BufferedInputStream(fin, 65536);
+		try {
+			FileCacheHeader header = readHeader(in);
+			if (header == null) {
+				in.mark(2);
+				int magic = new DataInputStream(in).readUnsignedShort();
+				in.reset();
+				if (magic == GZIP_MAGIC) {
+					in = Compressions.GZIP.decompress(in);
+				}
+				return getLegacyObject(in);
+			}
+			if (header.getKey() != null && !header.getKey().equals(key)) {
+				throw new StreamCorruptedException(file + " holds \"" + header.getKey() + "\", not \"" + key + "\"");
+			}
+			if (header.isChunked()) {
+				return getAllChunks(key);
+			}
+			if (header.isReference()) {
+				String blob = MraUtils.convertToHex(header.getContentHash());
+				return getObjectFromFile(getBlobFile(blob), blob);
+			}
+			ICodec c = getCodec(header, file);
+			ICompression decompression = Compressions.forName(header.getCompression());
+			if (decompression == null) {
+				throw new StreamCorruptedException("unknown compression for " + file + ": " + header.getCompression());
+			}
+			in = decompression.decompress(in);
+			return c.deserialize(in);
 		} catch (ClassNotFoundException e) {
 			logger.errorf("incompatible class change, and can't load %s: %s", file, e);
 			throw e;
@@ -64,55 +975,125 @@ public class FileCache implements ICache {
 			logger.errorf("incompatible class change, and can't load %s: %s", file, e);
 			throw e;
 		} finally {
+			bytesRead.add(fin.getChannel().position());
 			in.close();
 		}
 	}
 
-	private static ObjectInputStream getInput(File file, boolean compress) throws Exception {
-		// need to close the FileInputStream explicitly if there's an
-		// IOException, due to weird constructor behaviour of ObjectInputStream:
-		// constructor reads from stream and may throw IOException itself!!!
-		FileInputStream fin = new FileInputStream(file);
+	private static final int GZIP_MAGIC = 0x1f8b;
+
+	/**
+	 * files without a header are java serialized date, description and
+	 * object, possibly gzipped as a whole
+	 */
+	private static Object getLegacyObject(InputStream in) throws Exception {
+		ObjectInputStream oin = new ObjectInputStream(in);
+		oin.readObject();
+		oin.readObject();
+		return oin.readObject();
+	}
+
+	private File getFileForKey(String key) {
+		if (layout == Layout.HASHED) {
+			String h = MraUtils.md5Hash(key.getBytes(StandardCharsets.UTF_8));
+			return new File(new File(new File(dir, h.substring(0, 2)), h.substring(2, 4)), h);
+		} else {
+			return new File(dir, key);
+		}
+	}
+
+	/**
+	 * from the file's header, or its modification time if it predates headers
+	 */
+	public Date getDateObjectStored(String key) {
 		try {
-			if (compress) {
-				return new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(fin, 65536)));
-			} else {
-				return new ObjectInputStream(new BufferedInputStream(fin, 65536));
-			}
+			ICacheMetadata md = getMetadata(key);
+			return md == null ? null : md.getDateObjectStored();
 		} catch (IOException e) {
-			fin.close();
-			throw e;
+			logger.warnf("can't read header for %s: %s", key, e);
+			return new Date(getFileForKey(key).lastModified());
 		}
 	}
 
-	private static ObjectOutputStream getOutput(File file, boolean compress) throws Exception {
-		FileOutputStream fout = new FileOutputStream(file);
+	/**
+	 * reads just the file's header
+	 */
+	public ICacheMetadata getMetadata(String key) throws IOException {
+		File file = getFileForKey(key);
+		final FileCacheHeader header;
+		final long size;
+		final long modified;
 		try {
-			if (compress) {
-				return new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(fout, 65536)));
+			InputStream in = new BufferedInputStream(new FileInputStream(file), FileCacheHeader.BLOCK_SIZE);
+			try {
+				header = readHeader(in);
+			} finally {
+				in.close();
+			}
+			if (header != null && header.isReference()) {
+				size = getBlobFile(MraUtils.convertToHex(header.getContentHash())).length();
 			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(fout, 65536));
+				size = file.length();
 			}
-		} catch (Exception e) {
-			fout.close();
-			throw e;
+			modified = file.lastModified();
+		} catch (FileNotFoundException e) {
+			return null;
 		}
-	}
+		return new ICacheMetadata() {
 
-	private File getFileForKey(String key) {
-		return new File(dir, key);
-	}
+			public Date getDateObjectStored() {
+				return new Date(header == null ? modified : header.getCreated());
+			}
 
-	public Date getDateObjectStored(String key) {
-		return new Date(getFileForKey(key).lastModified());
+			public long getStoredSizeEstimate() {
+				return size;
+			}
+
+			public long getPayloadLength() {
+				return header == null ? -1 : header.getPayloadLength();
+			}
+
+			public String getContentHash() {
+				return header == null ? null : MraUtils.convertToHex(header.getContentHash());
+			}
+
+			public String getCodecName() {
+				return header == null ? null : header.getCodecName();
+			}
+
+			public String getDescription() {
+				return header == null ? null : header.getDescription();
+			}
+
+			public Map<String, String> getTags() {
+				return header == null ? Collections.<String, String> emptyMap() : header.getTags();
+			}
+
+			@Override
+			public String toString() {
+				return String.format("stored = %s; size = %d; payload = %d; hash = %s; codec = %s; tags = %s",
+						getDateObjectStored(), size, getPayloadLength(), getContentHash(), getCodecName(), getTags());
+			}
+		};
 	}
 
+	/**
+	 * for a key referring to a blob, that's the blob's size
+	 */
 	public long getStoredSizeEstimate(String key) {
+		if (hasBlobs()) {
+			try {
+				ICacheMetadata md = getMetadata(key);
+				return md == null ? 0 : md.getStoredSizeEstimate();
+			} catch (IOException e) {
+				logger.warnf("can't read header for %s: %s", key, e);
+			}
+		}
 		return getFileForKey(key).length();
 	}
 
 	public Object getObject(String key) throws Exception {
-		return getObjectFromFile(getFileForKey(key), compressed);
+		return getObjectFromFile(getFileForKey(key), key);
 	}
 
 	public boolean hasObjectForKey(String key) {
@@ -120,16 +1101,165 @@ public class FileCache implements ICache {
 	}
 
 	public boolean removeObject(String key) {
-		return getFileForKey(key).delete();
+		File file = getFileForKey(key);
+		if (!hasBlobs()) {
+			return file.delete();
+		}
+		getBlobReferences();
+		try {
+			keyLocks.lockID(key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try {
+			String blob = getReferencedBlob(file);
+			boolean deleted = file.delete();
+			if (deleted && blob != null) {
+				releaseBlob(blob);
+			}
+			return deleted;
+		} finally {
+			keyLocks.unlockID(key);
+		}
 	}
 
 	public void storeObject(String key, Object o) throws Exception {
-		putObjectToFile(getFileForKey(key), "stored by " + FileCache.class, o, compressed);
+		storeObject(key, o, "stored by " + FileCache.class, null);
+	}
+
+	public void storeObject(String key, Object o, Date stored) throws Exception {
+		storeObject(key, o, "stored by " + FileCache.class, null, stored);
+	}
+
+	public void storeObject(String key, Object o, String description, Map<String, String> tags) throws Exception {
+		storeObject(key, o, description, tags, new Date());
+	}
+
+	public void storeObject(String key, Object o, String description, Map<String, String> tags, Date stored)
+			throws Exception {
+		if (isDeduplicating()) {
+			storeDeduplicated(key, o, description, tags, stored.getTime());
+		} else {
+			logger.debugf("putting object \"" + description + "\" to " + getFileForKey(key));
+			writeKeyFile(key, createObjectWriter(key, description, tags, o, stored.getTime()));
+		}
 	}
 
+	/**
+	 * streams keys lazily from the directory tree. in the hashed layout, each
+	 * key is read from its file's header. directories are closed as they're
+	 * exhausted, so iterate to the end to release them promptly
+	 */
 	public Iterator<String> iterator() {
-		String[] children = dir.list();
-		return Arrays.asList(children).iterator();
+		return new KeyIterator();
+	}
+
+	private final class KeyIterator implements Iterator<String> {
+
+		private final LinkedList<DirectoryStream<Path>> streams = new LinkedList<DirectoryStream<Path>>();
+
+		private final LinkedList<Iterator<Path>> iterators = new LinkedList<Iterator<Path>>();
+
+		private final int depth = layout == Layout.HASHED ? 2 : 0;
+
+		private String next;
+
+		public KeyIterator() {
+			push(dir.toPath());
+			advance();
+		}
+
+		private void push(Path p) {
+			try {
+				DirectoryStream<Path> s = Files.newDirectoryStream(p);
+				streams.push(s);
+				iterators.push(s.iterator());
+			} catch (IOException e) {
+				logger.warn("can't list %s", e, p);
+			}
+		}
+
+		private void pop() {
+			iterators.pop();
+			try {
+				streams.pop().close();
+			} catch (IOException e) {
+			}
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !iterators.isEmpty()) {
+				Iterator<Path> it = iterators.peek();
+				if (!it.hasNext()) {
+					pop();
+					continue;
+				}
+				Path p = it.next();
+				String name = p.getFileName().toString();
+				if (name.startsWith(INTERNAL_PREFIX)) {
+					continue;
+				}
+				if (iterators.size() <= depth) {
+					if (Files.isDirectory(p)) {
+						push(p);
+					}
+				} else if (depth == 0) {
+					next = name;
+				} else {
+					try {
+						FileCacheHeader header = readHeader(p.toFile());
+						next = header == null ? null : header.getKey();
+					} catch (IOException e) {
+						// removed or replaced while iterating
+					}
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public String next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			String out = next;
+			advance();
+			return out;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * deletes temporary files left behind by writers that crashed
+	 * 
+	 * @param olderThanMillis
+	 *            age beyond which no live writer could still be using a file
+	 * @return number of files deleted
+	 */
+	public int deleteAbandonedTemporaryFiles(long olderThanMillis) {
+		long cutoff = System.currentTimeMillis() - olderThanMillis;
+		int count = 0;
+		File[] temps = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(TEMP_PREFIX);
+			}
+		});
+		if (temps == null) {
+			return 0;
+		}
+		for (File f : temps) {
+			if (f.lastModified() < cutoff && f.delete()) {
+				count++;
+			}
+		}
+		return count;
 	}
 
 }
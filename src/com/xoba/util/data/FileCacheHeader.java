@@ -0,0 +1,280 @@
+package com.xoba.util.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * uncompressed header at the start of each file written by FileCache,
+ * describing how to read the payload that follows.
+ *
+ * the header is padded to a multiple of {@link #BLOCK_SIZE}, and starts with
+ * fixed-size fields at fixed offsets: magic, version, header length, creation
+ * time, payload length and content hash. the last two are only known once the
+ * payload has been written, and are then patched in place
+ *
+ */
+class FileCacheHeader {
+
+	/**
+	 * "XFC1"; distinct from the leading bytes of both java serialization and
+	 * gzip, which is how files from before the header existed are recognized
+	 */
+	public static final int MAGIC = 0x58464331;
+
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * the payload is a sequence of separately compressed chunks, followed by
+	 * a table of their offsets
+	 */
+	public static final int FLAG_CHUNKED = 1;
+
+	/**
+	 * the file has no payload of its own; it's that of the blob named by the
+	 * content hash, shared with other keys
+	 */
+	public static final int FLAG_REFERENCE = 2;
+
+	public static final int BLOCK_SIZE = 512;
+
+	private static final int PAYLOAD_LENGTH_OFFSET = 4 + 2 + 4 + 8;
+
+	public static final int HASH_LENGTH = 16;
+
+	private static final int FIXED_LENGTH = PAYLOAD_LENGTH_OFFSET + 8 + HASH_LENGTH;
+
+	/**
+	 * bounds what's read on the word of a header's length field
+	 */
+	public static final int MAX_LENGTH = 1 << 20;
+
+	private final String codecName;
+
+	private final int codecVersion;
+
+	private final String contentType;
+
+	private final String compression;
+
+	private final long created;
+
+	private final String description;
+
+	private final String key;
+
+	private final Map<String, String> tags;
+
+	private final int flags;
+
+	private final long payloadLength;
+
+	private final byte[] contentHash;
+
+	/**
+	 * for writing, with the payload length and hash still unknown
+	 */
+	public FileCacheHeader(String codecName, int codecVersion, String contentType, String compression, long created,
+			String description, String key, Map<String, String> tags, int flags) {
+		this(codecName, codecVersion, contentType, compression, created, description, key, tags, flags, -1, null);
+	}
+
+	private FileCacheHeader(String codecName, int codecVersion, String contentType, String compression, long created,
+			String description, String key, Map<String, String> tags, int flags, long payloadLength, byte[] contentHash) {
+		this.codecName = codecName;
+		this.codecVersion = codecVersion;
+		this.contentType = contentType;
+		this.compression = compression;
+		this.created = created;
+		this.description = description;
+		this.key = key;
+		this.tags = tags == null ? Collections.<String, String> emptyMap() : Collections
+				.unmodifiableMap(new LinkedHashMap<String, String>(tags));
+		this.flags = flags;
+		this.payloadLength = payloadLength;
+		this.contentHash = contentHash;
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream rest = new DataOutputStream(bout);
+		writeString(rest, codecName);
+		rest.writeInt(codecVersion);
+		writeString(rest, contentType);
+		writeString(rest, compression);
+		writeString(rest, description);
+		writeString(rest, key);
+		rest.writeInt(tags.size());
+		for (Map.Entry<String, String> e : tags.entrySet()) {
+			writeString(rest, e.getKey());
+			writeString(rest, e.getValue());
+		}
+		rest.writeInt(flags);
+		rest.flush();
+
+		int length = FIXED_LENGTH + bout.size();
+		length = (length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+		if (length > MAX_LENGTH) {
+			throw new IOException("header too large: " + length);
+		}
+
+		out.writeInt(MAGIC);
+		out.writeShort(FORMAT_VERSION);
+		out.writeInt(length);
+		out.writeLong(created);
+		out.writeLong(payloadLength);
+		out.write(contentHash == null ? new byte[HASH_LENGTH] : contentHash);
+		bout.writeTo(out);
+		out.write(new byte[length - FIXED_LENGTH - bout.size()]);
+	}
+
+	/**
+	 * utf-8 bytes preceded by their count as an int, or -1 for null
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * as written by {@link #writeString(DataOutputStream, String)}
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) {
+			return null;
+		}
+		if (n > in.available()) {
+			throw new StreamCorruptedException("bad string length: " + n);
+		}
+		byte[] b = new byte[n];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * fills in the payload length and hash of a header written at the start
+	 * of the channel
+	 */
+	public static void patch(FileChannel ch, long payloadLength, byte[] contentHash) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(8 + HASH_LENGTH);
+		buf.putLong(payloadLength);
+		buf.put(contentHash);
+		buf.flip();
+		long position = PAYLOAD_LENGTH_OFFSET;
+		while (buf.hasRemaining()) {
+			position += ch.write(buf, position);
+		}
+	}
+
+	/**
+	 * reads the rest of a header whose magic number has already been
+	 * consumed, leaving the stream at the payload
+	 */
+	public static FileCacheHeader readAfterMagic(DataInputStream in) throws IOException {
+		int version = in.readShort();
+		if (version != FORMAT_VERSION) {
+			throw new StreamCorruptedException("unknown file cache format: " + version);
+		}
+		int length = in.readInt();
+		if (length < FIXED_LENGTH || length > MAX_LENGTH || length % BLOCK_SIZE != 0) {
+			throw new StreamCorruptedException("bad header length: " + length);
+		}
+		long created = in.readLong();
+		long payloadLength = in.readLong();
+		byte[] hash = new byte[HASH_LENGTH];
+		in.readFully(hash);
+		byte[] rest = new byte[length - FIXED_LENGTH];
+		in.readFully(rest);
+		DataInputStream din = new DataInputStream(new ByteArrayInputStream(rest));
+		String codecName = readString(din);
+		int codecVersion = din.readInt();
+		String contentType = readString(din);
+		String compression = readString(din);
+		String description = readString(din);
+		String key = readString(din);
+		int n = din.readInt();
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		for (int i = 0; i < n; i++) {
+			String name = readString(din);
+			tags.put(name, readString(din));
+		}
+		int flags = din.readInt();
+		return new FileCacheHeader(codecName, codecVersion, contentType, compression, created, description, key, tags,
+				flags, payloadLength < 0 ? -1 : payloadLength, payloadLength < 0 ? null : hash);
+	}
+
+	public String getCodecName() {
+		return codecName;
+	}
+
+	public int getCodecVersion() {
+		return codecVersion;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return the key the object was stored under, or null if none was
+	 *         recorded
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	public boolean isChunked() {
+		return (flags & FLAG_CHUNKED) != 0;
+	}
+
+	public boolean isReference() {
+		return (flags & FLAG_REFERENCE) != 0;
+	}
+
+	/**
+	 * @return serialized length before compression, or -1 if unknown
+	 */
+	public long getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * @return MD5 of the serialized payload before compression, or null if
+	 *         unknown
+	 */
+	public byte[] getContentHash() {
+		return contentHash == null ? null : contentHash.clone();
+	}
+
+}
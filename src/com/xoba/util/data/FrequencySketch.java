@@ -0,0 +1,77 @@
+package com.xoba.util.data;
+
+/**
+ * approximate access frequencies for keys, as a count-min sketch of small
+ * saturating counters which are periodically halved so that old popularity
+ * fades
+ *
+ */
+class FrequencySketch {
+
+	private static final int DEPTH = 4;
+
+	private static final int MAX_COUNT = 15;
+
+	private static final int[] SEEDS = new int[] { 0x97cb3127, 0xb3a2a8e9, 0x5a3ee6a1, 0x1b873593 };
+
+	private final byte[] table;
+
+	private final int mask;
+
+	private final int sampleSize;
+
+	private int additions;
+
+	public FrequencySketch(int expectedEntries) {
+		int width = 16;
+		while (width < 2L * expectedEntries && width < (1 << 26)) {
+			width <<= 1;
+		}
+		this.table = new byte[DEPTH * width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * width;
+	}
+
+	private static int spread(int h, int seed) {
+		h *= seed;
+		h ^= h >>> 17;
+		h *= 0xed5ad4bb;
+		h ^= h >>> 11;
+		return h;
+	}
+
+	private int index(int h, int row) {
+		return row * (mask + 1) + (spread(h, SEEDS[row]) & mask);
+	}
+
+	public void increment(Object key) {
+		int h = key.hashCode();
+		boolean added = false;
+		for (int row = 0; row < DEPTH; row++) {
+			int i = index(h, row);
+			if (table[i] < MAX_COUNT) {
+				table[i]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			age();
+		}
+	}
+
+	public int frequency(Object key) {
+		int h = key.hashCode();
+		int min = MAX_COUNT;
+		for (int row = 0; row < DEPTH; row++) {
+			min = Math.min(min, table[index(h, row)]);
+		}
+		return min;
+	}
+
+	private void age() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>= 1;
+		}
+		additions /= 2;
+	}
+}
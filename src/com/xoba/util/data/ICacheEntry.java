@@ -0,0 +1,17 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+
+/**
+ * a cached object along with its metadata, as of a single lookup
+ * 
+ */
+public interface ICacheEntry {
+
+	public Object getObject();
+
+	public Date getDateObjectStored();
+
+	public long getStoredSizeEstimate();
+
+}
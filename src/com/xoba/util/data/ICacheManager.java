@@ -23,6 +23,17 @@ public interface ICacheManager<T> {
 
 	}
 
+	/**
+	 * data browser for caches keeping metadata, so that decisions can be made
+	 * without reading the data
+	 * 
+	 */
+	public static interface IMetadataBrowser<T> extends IDataBrowser<T> {
+
+		public ICacheMetadata getMetadata();
+
+	}
+
 	public boolean canUsePreviouslyCachedData(IDataBrowser<T> browser, Date cacheCreationDate, long size);
 
 }
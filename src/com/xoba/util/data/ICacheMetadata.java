@@ -0,0 +1,39 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * what's known about a cached object without reading it
+ * 
+ */
+public interface ICacheMetadata {
+
+	public Date getDateObjectStored();
+
+	public long getStoredSizeEstimate();
+
+	/**
+	 * @return serialized length before compression, or -1 if unknown
+	 */
+	public long getPayloadLength();
+
+	/**
+	 * @return hex MD5 of the serialized object before compression, or null if
+	 *         unknown
+	 */
+	public String getContentHash();
+
+	/**
+	 * @return the codec name, or null if unknown
+	 */
+	public String getCodecName();
+
+	public String getDescription();
+
+	/**
+	 * @return tags given when the object was stored; never null
+	 */
+	public Map<String, String> getTags();
+
+}
@@ -0,0 +1,23 @@
+package com.xoba.util.data;
+
+/**
+ * source of the current time, so that expiration can be tested without
+ * waiting
+ * 
+ */
+public interface IClock {
+
+	public static final IClock SYSTEM = new IClock() {
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public String toString() {
+			return "system clock";
+		}
+	};
+
+	public long currentTimeMillis();
+
+}
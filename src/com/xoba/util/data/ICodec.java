@@ -0,0 +1,49 @@
+package com.xoba.util.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * turns cached objects into bytes and back
+ * 
+ */
+public interface ICodec {
+
+	/**
+	 * unique name, recorded with each stored object
+	 * 
+	 * @return
+	 */
+	public String getName();
+
+	/**
+	 * bump whenever the encoding changes incompatibly; objects stored under
+	 * any other version are treated as stale
+	 * 
+	 * @return
+	 */
+	public int getVersion();
+
+	public String getContentType();
+
+	/**
+	 * writes the object; must flush, but not close, the stream
+	 * 
+	 * @param o
+	 * @param out
+	 * @throws IOException
+	 */
+	public void serialize(Object o, OutputStream out) throws IOException;
+
+	/**
+	 * reads an object written by serialize; needn't close the stream
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public Object deserialize(InputStream in) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,33 @@
+package com.xoba.util.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * a stream compression format for cached payloads
+ * 
+ */
+public interface ICompression {
+
+	/**
+	 * unique name, recorded with each stored object; see
+	 * {@link Compressions#forName(String)}
+	 * 
+	 * @return
+	 */
+	public String getName();
+
+	/**
+	 * closing the returned stream finishes compression and closes the
+	 * underlying stream
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	public OutputStream compress(OutputStream out) throws IOException;
+
+	public InputStream decompress(InputStream in) throws IOException;
+
+}
@@ -1,12 +1,11 @@
 package com.xoba.util.data;
 
-import java.util.HashSet;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class IDLockManager {
@@ -46,12 +45,23 @@ public class IDLockManager {
 
 	}
 
-	private Lock lock = new ReentrantLock();
+	/**
+	 * one lock per ID, kept in the table only while some thread holds or waits
+	 * for it
+	 */
+	private static final class IDLock {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		// guarded by this
+		private int users;
+
+		// guarded by this; once retired, a lock is no longer in the table
+		private boolean retired;
 
-	// we assume there won't be too many simultaneous requests
-	private Condition globalCondition = lock.newCondition();
+	}
 
-	private Set<String> locked = new HashSet<String>();
+	private final ConcurrentMap<String, IDLock> locks = new ConcurrentHashMap<String, IDLock>();
 
 	private static final long START = System.currentTimeMillis();
 
@@ -59,30 +69,96 @@ public class IDLockManager {
 		System.out.println((System.currentTimeMillis() - START) + "; " + Thread.currentThread().getName() + "; " + message + "; " + id);
 	}
 
+	private IDLock reference(String id) {
+		while (true) {
+			IDLock l = locks.get(id);
+			if (l == null) {
+				IDLock created = new IDLock();
+				l = locks.putIfAbsent(id, created);
+				if (l == null) {
+					l = created;
+				}
+			}
+			synchronized (l) {
+				if (!l.retired) {
+					l.users++;
+					return l;
+				}
+			}
+			// lost a race with the last user of a retired lock; try again
+		}
+	}
+
+	private void dereference(String id, IDLock l) {
+		synchronized (l) {
+			if (--l.users == 0) {
+				l.retired = true;
+				locks.remove(id, l);
+			}
+		}
+	}
+
 	/**
-	 * tries to lock the given ID, and blocks if its already locked
+	 * tries to lock the given ID, and blocks if its already locked; only
+	 * waiters for the same ID are woken when it's unlocked. locks are
+	 * reentrant, so a thread may lock an ID it already holds, and must unlock
+	 * it as many times
 	 * 
 	 * @param id
 	 */
 	public void lockID(String id) throws InterruptedException {
-		lock.lock();
+		IDLock l = reference(id);
 		try {
-			while (locked.contains(id)) {
-				globalCondition.await();
-			}
-			locked.add(id);
-		} finally {
-			lock.unlock();
+			l.lock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			dereference(id, l);
+			throw e;
 		}
 	}
 
-	public void unlockID(String id) {
-		lock.lock();
+	/**
+	 * tries to lock the given ID, waiting at most the given time
+	 * 
+	 * @param id
+	 * @return whether the lock was acquired
+	 */
+	public boolean tryLockID(String id, long timeout, TimeUnit unit) throws InterruptedException {
+		IDLock l = reference(id);
+		boolean acquired = false;
 		try {
-			locked.remove(id);
-			globalCondition.signalAll();
+			acquired = l.lock.tryLock(timeout, unit);
 		} finally {
-			lock.unlock();
+			if (!acquired) {
+				dereference(id, l);
+			}
 		}
+		return acquired;
+	}
+
+	/**
+	 * unlocks the given ID, which must be held by the calling thread. unlike
+	 * earlier versions, which let any thread unlock any ID and ignored IDs
+	 * that weren't locked, both are now errors
+	 * 
+	 * @param id
+	 * @throws IllegalStateException
+	 *             if the calling thread doesn't hold the ID
+	 */
+	public void unlockID(String id) {
+		IDLock l = locks.get(id);
+		if (l == null || !l.lock.isHeldByCurrentThread()) {
+			throw new IllegalStateException("id not locked by current thread: " + id);
+		}
+		l.lock.unlock();
+		dereference(id, l);
+	}
+
+	/**
+	 * number of IDs currently locked or waited for
+	 * 
+	 * @return
+	 */
+	public int getActiveIDCount() {
+		return locks.size();
 	}
 }
@@ -0,0 +1,151 @@
+package com.xoba.util.data;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * throughput comparison of the per-ID lock manager against the old
+ * single-monitor implementation, at increasing thread counts
+ *
+ */
+public class IDLockManagerBenchmark {
+
+	private static interface ILocker {
+
+		public void lockID(String id) throws InterruptedException;
+
+		public void unlockID(String id);
+
+	}
+
+	/**
+	 * the original implementation: one global lock, one condition, signalAll
+	 * on every unlock
+	 */
+	private static class GlobalConditionLocker implements ILocker {
+
+		private Lock lock = new ReentrantLock();
+
+		private Condition globalCondition = lock.newCondition();
+
+		private Set<String> locked = new HashSet<String>();
+
+		public void lockID(String id) throws InterruptedException {
+			lock.lock();
+			try {
+				while (locked.contains(id)) {
+					globalCondition.await();
+				}
+				locked.add(id);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void unlockID(String id) {
+			lock.lock();
+			try {
+				locked.remove(id);
+				globalCondition.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static class PerIDLocker implements ILocker {
+
+		private final IDLockManager lm = new IDLockManager();
+
+		public void lockID(String id) throws InterruptedException {
+			lm.lockID(id);
+		}
+
+		public void unlockID(String id) {
+			lm.unlockID(id);
+		}
+	}
+
+	// keeps the work inside the lock from being optimized away
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+
+		final int ids = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		final long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+		for (int threads : new int[] { 1, 8, 64, 512 }) {
+			// warm up both before measuring
+			run(new GlobalConditionLocker(), threads, ids, millis / 4);
+			run(new PerIDLocker(), threads, ids, millis / 4);
+
+			double global = run(new GlobalConditionLocker(), threads, ids, millis);
+			double perID = run(new PerIDLocker(), threads, ids, millis);
+
+			System.out.printf("threads = %3d; ids = %d; global condition = %,12.0f ops/sec; per-id = %,12.0f ops/sec; speedup = %.2fx%n",
+					threads, ids, global, perID, perID / global);
+		}
+	}
+
+	private static double run(final ILocker locker, int threads, final int ids, long millis) throws Exception {
+
+		final String[] keys = new String[ids];
+		for (int i = 0; i < ids; i++) {
+			keys[i] = "id-" + i;
+		}
+
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] deadline = new long[1];
+
+		for (int i = 0; i < threads; i++) {
+			final long seed = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(seed);
+					long count = 0;
+					long work = 0;
+					try {
+						start.await();
+						while (System.nanoTime() < deadline[0]) {
+							String id = keys[r.nextInt(keys.length)];
+							locker.lockID(id);
+							try {
+								// a small amount of work while holding the lock
+								for (int j = 0; j < 100; j++) {
+									work += j ^ count;
+								}
+							} finally {
+								locker.unlockID(id);
+							}
+							count++;
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						ops.addAndGet(count);
+						sink += work;
+						done.countDown();
+					}
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		long t0 = System.nanoTime();
+		deadline[0] = t0 + millis * 1000000L;
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - t0;
+
+		return ops.get() / (elapsed / 1e9);
+	}
+}
@@ -0,0 +1,15 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+
+/**
+ * cache which can keep an object's original storage date, for instance when
+ * it's copied from a slower cache, so that expiration is still judged from
+ * when the object was created
+ * 
+ */
+public interface IDatedCache extends ICache {
+
+	public void storeObject(String key, Object o, Date stored) throws Exception;
+
+}
@@ -0,0 +1,19 @@
+package com.xoba.util.data;
+
+import java.util.Set;
+
+/**
+ * managed data computed from other managed data, so that invalidating any of
+ * those also invalidates this; see {@link ObjectManager#invalidate(String)}
+ * 
+ */
+public interface IDependentManagedData<T> extends IManagedData<T> {
+
+	/**
+	 * IDs of the data this is computed from
+	 * 
+	 * @return
+	 */
+	public Set<String> getUpstreamIDs();
+
+}
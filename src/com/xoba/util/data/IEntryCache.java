@@ -0,0 +1,17 @@
+package com.xoba.util.data;
+
+/**
+ * cache which can look up an object and its metadata in one call, avoiding
+ * the race between hasObjectForKey and getObject
+ * 
+ */
+public interface IEntryCache extends ICache {
+
+	/**
+	 * @param key
+	 * @return the entry, or null if there's nothing stored for the key
+	 * @throws Exception
+	 */
+	public ICacheEntry getEntry(String key) throws Exception;
+
+}
@@ -0,0 +1,33 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+
+/**
+ * cache which drops entries on its own, and can say which ones
+ * 
+ */
+public interface IEvictingCache extends ICache {
+
+	public static interface IEvictionListener {
+
+		/**
+		 * called, outside the cache's locks, for each entry the cache has
+		 * dropped or refused to keep; not for removals or replacements
+		 * 
+		 * @param key
+		 * @param o
+		 * @param stored
+		 *            when the object was originally stored, so that it's
+		 *            still judged from then wherever it goes next
+		 */
+		public void evicted(String key, Object o, Date stored);
+
+	}
+
+	/**
+	 * @param listener
+	 *            replaces any previous one; null for none
+	 */
+	public void setEvictionListener(IEvictionListener listener);
+
+}
@@ -0,0 +1,19 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+
+/**
+ * cache manager whose data becomes unusable at a time known in advance, so
+ * that it can be removed proactively; see {@link ExpirySweeper}
+ * 
+ */
+public interface IExpiringCacheManager<T> extends ICacheManager<T> {
+
+	/**
+	 * @param cacheCreationDate
+	 * @return millis at which data created at the given date stops being
+	 *         usable, or Long.MAX_VALUE if never
+	 */
+	public long getExpirationTime(Date cacheCreationDate);
+
+}
@@ -0,0 +1,26 @@
+package com.xoba.util.data;
+
+import java.io.IOException;
+
+import com.xoba.util.ICanClose;
+
+/**
+ * cache shared between processes, which can serialize work on a key across
+ * all of them
+ * 
+ */
+public interface ILockableCache extends ICache {
+
+	/**
+	 * blocks until no other process or thread holds the lock for the key.
+	 * the returned handle releases it, and must be closed by the same thread
+	 * 
+	 * @param key
+	 * @return the lock, or null if this cache isn't coordinating across
+	 *         processes
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public ICanClose lockKey(String key) throws IOException, InterruptedException;
+
+}
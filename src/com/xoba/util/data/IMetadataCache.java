@@ -0,0 +1,32 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * cache which keeps metadata with each object, readable without reading the
+ * object itself
+ * 
+ */
+public interface IMetadataCache extends ICache {
+
+	/**
+	 * @return metadata, or null if there's no object for the key
+	 */
+	public ICacheMetadata getMetadata(String key) throws Exception;
+
+	/**
+	 * @param description
+	 * @param tags
+	 *            may be null
+	 */
+	public void storeObject(String key, Object o, String description, Map<String, String> tags) throws Exception;
+
+	/**
+	 * @param stored
+	 *            recorded as when the object was stored, rather than now
+	 */
+	public void storeObject(String key, Object o, String description, Map<String, String> tags, Date stored)
+			throws Exception;
+
+}
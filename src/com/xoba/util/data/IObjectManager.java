@@ -1,5 +1,8 @@
 package com.xoba.util.data;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 public interface IObjectManager {
 
 	/**
@@ -12,6 +15,17 @@ public interface IObjectManager {
 	 */
 	public <T> T evaluateData(IManagedData<T> managedData) throws Exception;
 
+	/**
+	 * evaluates the given data on the executor, without blocking the calling
+	 * thread. concurrent requests for the same ID share a single evaluation
+	 * 
+	 * @param <T>
+	 * @param managedData
+	 * @param executor
+	 * @return
+	 */
+	public <T> CompletableFuture<T> evaluateDataAsync(IManagedData<T> managedData, Executor executor);
+
 	/**
 	 * returns whether or not data has been definitively removed from management
 	 * 
@@ -0,0 +1,11 @@
+package com.xoba.util.data;
+
+/**
+ * cache holding its objects on the heap as they were stored, so that an entry
+ * costs no more than a map lookup; caches which must read or deserialize an
+ * object to return its entry shouldn't be marked as such
+ *
+ */
+public interface IOnHeapCache extends IEntryCache {
+
+}
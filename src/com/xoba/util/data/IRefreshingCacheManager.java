@@ -0,0 +1,20 @@
+package com.xoba.util.data;
+
+import java.util.Date;
+
+/**
+ * cache manager which can ask for usable data to be recreated in the
+ * background, so that callers keep getting the old data meanwhile instead of
+ * waiting
+ * 
+ */
+public interface IRefreshingCacheManager<T> extends ICacheManager<T> {
+
+	/**
+	 * only asked about data that {@link #canUsePreviouslyCachedData} accepted
+	 * 
+	 * @return whether to recreate the data in the background
+	 */
+	public boolean shouldRefresh(IDataBrowser<T> browser, Date cacheCreationDate, long size);
+
+}
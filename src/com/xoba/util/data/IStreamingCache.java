@@ -0,0 +1,52 @@
+package com.xoba.util.data;
+
+import java.util.Iterator;
+
+import com.xoba.util.ICanClose;
+
+/**
+ * cache which can store a value as a sequence of separately readable chunks,
+ * for values too big to have in memory all at once
+ * 
+ */
+public interface IStreamingCache extends ICache {
+
+	/**
+	 * read access to a stored sequence of chunks; close it when done
+	 * 
+	 */
+	public static interface IChunkCursor extends Iterable<Object>, ICanClose {
+
+		public int getChunkCount();
+
+		/**
+		 * reads just the given chunk
+		 * 
+		 * @param n
+		 * @return
+		 * @throws Exception
+		 */
+		public Object getChunk(int n) throws Exception;
+
+	}
+
+	/**
+	 * stores each chunk as it's produced, so the whole value never needs to be
+	 * in memory
+	 * 
+	 * @param key
+	 * @param chunks
+	 * @throws Exception
+	 */
+	public void storeChunks(String key, Iterator<?> chunks) throws Exception;
+
+	/**
+	 * an object stored in one piece reads as a single chunk
+	 * 
+	 * @param key
+	 * @return the cursor, or null if there's no object for the key
+	 * @throws Exception
+	 */
+	public IChunkCursor openChunks(String key) throws Exception;
+
+}
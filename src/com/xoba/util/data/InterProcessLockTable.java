@@ -0,0 +1,115 @@
+package com.xoba.util.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.xoba.util.ICanClose;
+import com.xoba.util.MraUtils;
+
+/**
+ * per-key locks shared by every process using the same lock file. each key
+ * locks one byte of the file, at an offset given by a hash of the key; locks
+ * beyond the end of the file are allowed, so the file itself stays empty.
+ *
+ * the JVM allows only one lock on a region at a time, and closing any
+ * channel to the file would drop all of them, so there's one table, with one
+ * channel, per lock file in the JVM. threads are serialized per key before
+ * touching the file, and poll for the file lock rather than block on it,
+ * since interrupting a blocked thread would close the shared channel
+ *
+ */
+class InterProcessLockTable {
+
+	private static final Map<String, InterProcessLockTable> tables = new HashMap<String, InterProcessLockTable>();
+
+	public static synchronized InterProcessLockTable forFile(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		InterProcessLockTable t = tables.get(path);
+		if (t == null) {
+			t = new InterProcessLockTable(file);
+			tables.put(path, t);
+		}
+		return t;
+	}
+
+	private static final long MAX_BACKOFF_MILLIS = 50;
+
+	private final File file;
+
+	private final IDLockManager local = new IDLockManager();
+
+	private RandomAccessFile raf;
+
+	private InterProcessLockTable(File file) {
+		this.file = file;
+	}
+
+	private synchronized FileChannel getChannel() throws IOException {
+		if (raf == null || !raf.getChannel().isOpen()) {
+			raf = new RandomAccessFile(file, "rw");
+		}
+		return raf.getChannel();
+	}
+
+	private static long position(String key) {
+		byte[] h = MraUtils.md5HashBytesToBytes(key.getBytes(StandardCharsets.UTF_8));
+		return ByteBuffer.wrap(h).getLong() & 0x3fffffffffffffffL;
+	}
+
+	/**
+	 * @return to be closed by the thread that locked, to release the key
+	 */
+	public ICanClose lock(final String key) throws IOException, InterruptedException {
+		local.lockID(key);
+		boolean locked = false;
+		try {
+			final FileLock lock = acquire(position(key));
+			locked = true;
+			return new ICanClose() {
+				public void close() throws IOException {
+					try {
+						if (lock.isValid()) {
+							lock.release();
+						}
+					} finally {
+						local.unlockID(key);
+					}
+				}
+			};
+		} finally {
+			if (!locked) {
+				local.unlockID(key);
+			}
+		}
+	}
+
+	private FileLock acquire(long position) throws IOException, InterruptedException {
+		long backoff = 1;
+		while (true) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			FileLock lock;
+			try {
+				lock = getChannel().tryLock(position, 1, false);
+			} catch (ClosedChannelException e) {
+				// reopened on the next try
+				lock = null;
+			}
+			if (lock != null) {
+				return lock;
+			}
+			Thread.sleep(backoff);
+			backoff = Math.min(MAX_BACKOFF_MILLIS, 2 * backoff);
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.xoba.util.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * plain java serialization, for any serializable object
+ * 
+ */
+public class JavaSerializationCodec implements ICodec {
+
+	public static final String NAME = "java";
+
+	public String getName() {
+		return NAME;
+	}
+
+	public int getVersion() {
+		return 1;
+	}
+
+	public String getContentType() {
+		return "application/x-java-serialized-object";
+	}
+
+	public void serialize(Object o, OutputStream out) throws IOException {
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(o);
+		oos.flush();
+	}
+
+	public Object deserialize(InputStream in) throws IOException, ClassNotFoundException {
+		return new ObjectInputStream(in).readObject();
+	}
+
+}
@@ -0,0 +1,315 @@
+package com.xoba.util.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * fast LZ77 compression, trading ratio for speed; each 64k block is encoded
+ * as LZ4-style sequences of literals and back-references, or stored raw if
+ * it doesn't shrink.
+ *
+ * stream layout: for each block, its raw length and encoded length (negated
+ * if stored raw) followed by the encoded bytes; a zero raw length ends the
+ * stream
+ *
+ */
+public class LZCompression implements ICompression {
+
+	public static final String NAME = "lz";
+
+	private static final int BLOCK_SIZE = 65536;
+
+	private static final int MIN_MATCH = 4;
+
+	// the last literals of a block are never part of a match
+	private static final int LAST_LITERALS = 5;
+
+	private static final int HASH_BITS = 14;
+
+	private static final int MAX_OFFSET = 65535;
+
+	public String getName() {
+		return NAME;
+	}
+
+	public OutputStream compress(OutputStream out) {
+		return new LZOutputStream(out);
+	}
+
+	public InputStream decompress(InputStream in) {
+		return new LZInputStream(in);
+	}
+
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+	}
+
+	private static int hash(int x) {
+		return (x * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	private static int writeLength(byte[] dst, int d, int length) {
+		while (length >= 255) {
+			dst[d++] = (byte) 255;
+			length -= 255;
+		}
+		dst[d++] = (byte) length;
+		return d;
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals, int offset, int matchLength, byte[] dst, int d) {
+		int token = d++;
+		int t = Math.min(literals, 15) << 4;
+		if (literals >= 15) {
+			d = writeLength(dst, d, literals - 15);
+		}
+		System.arraycopy(src, anchor, dst, d, literals);
+		d += literals;
+		if (matchLength > 0) {
+			dst[d++] = (byte) offset;
+			dst[d++] = (byte) (offset >>> 8);
+			int m = matchLength - MIN_MATCH;
+			t |= Math.min(m, 15);
+			if (m >= 15) {
+				d = writeLength(dst, d, m - 15);
+			}
+		}
+		dst[token] = (byte) t;
+		return d;
+	}
+
+	/**
+	 * @return number of bytes written to dst, which must have room for
+	 *         {@link #maxCompressedLength(int)} bytes
+	 */
+	static int compressBlock(byte[] src, int length, byte[] dst, int[] table) {
+		Arrays.fill(table, -1);
+		int anchor = 0, i = 0, d = 0;
+		int limit = length - LAST_LITERALS - MIN_MATCH;
+		while (i <= limit) {
+			int seq = readInt(src, i);
+			int h = hash(seq);
+			int ref = table[h];
+			table[h] = i;
+			if (ref >= 0 && i - ref <= MAX_OFFSET && readInt(src, ref) == seq) {
+				int matchLength = MIN_MATCH;
+				while (i + matchLength < length - LAST_LITERALS && src[ref + matchLength] == src[i + matchLength]) {
+					matchLength++;
+				}
+				d = writeSequence(src, anchor, i - anchor, i - ref, matchLength, dst, d);
+				i += matchLength;
+				anchor = i;
+			} else {
+				i++;
+			}
+		}
+		return writeSequence(src, anchor, length - anchor, 0, 0, dst, d);
+	}
+
+	private static int readLength(byte[] src, int[] s, int length) throws StreamCorruptedException {
+		if (length == 15) {
+			int b;
+			do {
+				if (s[0] >= src.length) {
+					throw new StreamCorruptedException("truncated length");
+				}
+				b = src[s[0]++] & 0xff;
+				length += b;
+			} while (b == 255);
+		}
+		return length;
+	}
+
+	static void decompressBlock(byte[] src, int srcLength, byte[] dst, int dstLength) throws StreamCorruptedException {
+		int[] s = new int[] { 0 };
+		int d = 0;
+		try {
+			while (true) {
+				int token = src[s[0]++] & 0xff;
+				int literals = readLength(src, s, token >>> 4);
+				System.arraycopy(src, s[0], dst, d, literals);
+				s[0] += literals;
+				d += literals;
+				if (s[0] >= srcLength) {
+					break;
+				}
+				int offset = (src[s[0]++] & 0xff) | (src[s[0]++] & 0xff) << 8;
+				int matchLength = readLength(src, s, token & 15) + MIN_MATCH;
+				int ref = d - offset;
+				if (offset == 0 || ref < 0) {
+					throw new StreamCorruptedException("bad offset: " + offset);
+				}
+				// may overlap, so copy forwards a byte at a time
+				for (int j = 0; j < matchLength; j++) {
+					dst[d++] = dst[ref++];
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new StreamCorruptedException("corrupt block");
+		}
+		if (d != dstLength) {
+			throw new StreamCorruptedException("expected " + dstLength + " bytes, got " + d);
+		}
+	}
+
+	private static final class LZOutputStream extends OutputStream {
+
+		private final DataOutputStream out;
+
+		private final byte[] block = new byte[BLOCK_SIZE];
+
+		private final byte[] encoded = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+		private final int[] table = new int[1 << HASH_BITS];
+
+		private int count;
+
+		private boolean closed;
+
+		public LZOutputStream(OutputStream out) {
+			this.out = new DataOutputStream(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == BLOCK_SIZE) {
+				writeBlock();
+			}
+			block[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == BLOCK_SIZE) {
+					writeBlock();
+				}
+				int n = Math.min(len, BLOCK_SIZE - count);
+				System.arraycopy(b, off, block, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (count == 0) {
+				return;
+			}
+			int n = compressBlock(block, count, encoded, table);
+			out.writeInt(count);
+			if (n < count) {
+				out.writeInt(n);
+				out.write(encoded, 0, n);
+			} else {
+				out.writeInt(-count);
+				out.write(block, 0, count);
+			}
+			count = 0;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeBlock();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				try {
+					writeBlock();
+					out.writeInt(0);
+				} finally {
+					out.close();
+				}
+			}
+		}
+	}
+
+	private static final class LZInputStream extends InputStream {
+
+		private final DataInputStream in;
+
+		private final byte[] block = new byte[BLOCK_SIZE];
+
+		private final byte[] encoded = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+		private int position, count;
+
+		private boolean eof;
+
+		public LZInputStream(InputStream in) {
+			this.in = new DataInputStream(in);
+		}
+
+		private boolean fill() throws IOException {
+			while (position == count && !eof) {
+				int raw;
+				try {
+					raw = in.readInt();
+				} catch (EOFException e) {
+					throw new StreamCorruptedException("missing end of stream");
+				}
+				if (raw == 0) {
+					eof = true;
+					break;
+				}
+				int n = in.readInt();
+				if (raw < 0 || raw > BLOCK_SIZE || n == 0 || Math.abs(n) > encoded.length) {
+					throw new StreamCorruptedException("bad block header: " + raw + ", " + n);
+				}
+				if (n < 0) {
+					in.readFully(block, 0, raw);
+				} else {
+					in.readFully(encoded, 0, n);
+					decompressBlock(encoded, n, block, raw);
+				}
+				position = 0;
+				count = raw;
+			}
+			return position < count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? block[position++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int n = Math.min(len, count - position);
+			System.arraycopy(block, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return count - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
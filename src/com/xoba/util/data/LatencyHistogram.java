@@ -0,0 +1,90 @@
+package com.xoba.util.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * cheap, contention-free histogram of durations, in power-of-two buckets of
+ * nanoseconds; percentiles are accurate to within a factor of two
+ *
+ */
+public class LatencyHistogram {
+
+	private final LongAdder[] buckets = new LongAdder[64];
+
+	private final LongAdder total = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		if (nanos < 1) {
+			nanos = 1;
+		}
+		buckets[63 - Long.numberOfLeadingZeros(nanos)].increment();
+		total.add(nanos);
+	}
+
+	/**
+	 * @return counts by bucket, where bucket i holds durations from 2^i up to
+	 *         2^(i+1) nanos
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[buckets.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	public long getCount() {
+		long n = 0;
+		for (LongAdder b : buckets) {
+			n += b.sum();
+		}
+		return n;
+	}
+
+	public double getTotalMillis() {
+		return total.sum() / 1e6;
+	}
+
+	public double getMeanMillis() {
+		long n = getCount();
+		return n == 0 ? 0 : getTotalMillis() / n;
+	}
+
+	/**
+	 * @param p
+	 *            between 0 and 1
+	 * @return upper bound of the bucket holding the given percentile
+	 */
+	public double getPercentileMillis(double p) {
+		long[] counts = getCounts();
+		long n = 0;
+		for (long c : counts) {
+			n += c;
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return Math.pow(2, i + 1) / 1e6;
+			}
+		}
+		return Math.pow(2, counts.length) / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n = %d; mean = %.3f ms; p50 < %.3f ms; p90 < %.3f ms; p99 < %.3f ms", getCount(),
+				getMeanMillis(), getPercentileMillis(0.5), getPercentileMillis(0.9), getPercentileMillis(0.99));
+	}
+
+}
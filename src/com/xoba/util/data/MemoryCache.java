@@ -7,45 +7,45 @@ import java.util.Map;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
 
-public class MemoryCache implements ICache {
+public class MemoryCache implements IOnHeapCache, IDatedCache {
 
-	private final Map<String, IRecord> objects;
-
-	private static interface IRecord {
-
-		public Object getObject();
-
-		public Date getDate();
-	}
+	private final Map<String, ICacheEntry> objects;
 
 	public void setDebuggingOutput(boolean debug) {
 	}
 
 	public MemoryCache(boolean weak) {
 		if (weak) {
-			objects = new WeakHashMap<String, IRecord>();
+			objects = new WeakHashMap<String, ICacheEntry>();
 		} else {
-			objects = new HashMap<String, IRecord>();
+			objects = new HashMap<String, ICacheEntry>();
 		}
 	}
 
-	private static IRecord createRecord(final Object o) {
-		final Date d = new Date();
-		return new IRecord() {
+	private static ICacheEntry createRecord(final Object o, final Date d) {
+		return new ICacheEntry() {
 
-			public Date getDate() {
+			public Date getDateObjectStored() {
 				return d;
 			}
 
 			public Object getObject() {
 				return o;
 			}
+
+			public long getStoredSizeEstimate() {
+				return 0;
+			}
 		};
 	}
 
+	public synchronized ICacheEntry getEntry(String key) {
+		return objects.get(key);
+	}
+
 	public synchronized Date getDateObjectStored(String key) {
-		IRecord rec = objects.get(key);
-		return rec == null ? null : rec.getDate();
+		ICacheEntry rec = objects.get(key);
+		return rec == null ? null : rec.getDateObjectStored();
 	}
 
 	public synchronized long getStoredSizeEstimate(String key) {
@@ -61,7 +61,11 @@ public class MemoryCache implements ICache {
 	}
 
 	public synchronized void storeObject(String key, Object o) {
-		objects.put(key, createRecord(o));
+		objects.put(key, createRecord(o, new Date()));
+	}
+
+	public synchronized void storeObject(String key, Object o, Date stored) {
+		objects.put(key, createRecord(o, stored));
 	}
 
 	public synchronized boolean removeObject(String key) {
@@ -1,11 +1,33 @@
 package com.xoba.util.data;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 public class NullObjectManager implements IObjectManager {
 
 	public <T> T evaluateData(IManagedData<T> managedData) throws Exception {
 		return managedData.createData();
 	}
 
+	public <T> CompletableFuture<T> evaluateDataAsync(final IManagedData<T> managedData, Executor executor) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						future.complete(managedData.createData());
+					} catch (Throwable t) {
+						future.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
 	public boolean removeDataFromManagement(String id) {
 		return true;
 	}
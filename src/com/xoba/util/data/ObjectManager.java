@@ -3,10 +3,38 @@ package com.xoba.util.data;
 import java.io.File;
 import java.io.InvalidClassException;
 import java.io.NotSerializableException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.xoba.util.ICanClose;
 import com.xoba.util.ILogger;
 import com.xoba.util.LogFactory;
 import com.xoba.util.data.ICacheManager.IDataBrowser;
@@ -22,48 +50,89 @@ public class ObjectManager implements IObjectManager {
 	private static final ILogger logger = LogFactory.getDefault().create();
 
 	public ObjectManager(boolean compress, boolean weak, File storageDir) {
-		firstLevelCache = new MemoryCache(weak);
-		secondLevelCache = storageDir == null ? new NullCache() : new FileCache(storageDir, compress);
+		this(weak ? new MemoryCache(true) : new ConcurrentMemoryCache(), storageDir == null ? null : new FileCache(
+				storageDir, compress));
 	}
 
 	public ObjectManager(boolean compress, File storageDir) {
-		firstLevelCache = new NullCache();
-		secondLevelCache = storageDir == null ? new NullCache() : new FileCache(storageDir, compress);
+		this(null, storageDir == null ? null : new FileCache(storageDir, compress));
 	}
 
-	private final ICache firstLevelCache, secondLevelCache;
-
-	private final int retries = 3;
-
-	private static class NullCache implements ICache {
+	/**
+	 * uses the given caches, for instance a bounded memory cache in front of a
+	 * file cache; either may be null
+	 * 
+	 * @param firstLevelCache
+	 * @param secondLevelCache
+	 */
+	public ObjectManager(ICache firstLevelCache, ICache secondLevelCache) {
+		this(createTiers(firstLevelCache, secondLevelCache));
+	}
 
-		public Date getDateObjectStored(String key) {
-			return null;
+	/**
+	 * looks for data in each tier in turn, e.g. on-heap, off-heap, local
+	 * files, then archive. the top tier always receives newly created data,
+	 * and lower ones do if they're write-through. a write-back tier gets data
+	 * as the tier above evicts it, which requires that tier to be an
+	 * {@link IEvictingCache}
+	 * 
+	 * @param tiers
+	 *            fastest first
+	 */
+	public ObjectManager(List<CacheTier> tiers) {
+		this.tiers = tiers.toArray(new CacheTier[tiers.size()]);
+		for (int i = 0; i + 1 < this.tiers.length; i++) {
+			ICache cache = this.tiers[i].getCache();
+			if (cache instanceof IEvictingCache) {
+				final CacheTier next = this.tiers[i + 1];
+				((IEvictingCache) cache).setEvictionListener(new IEvictingCache.IEvictionListener() {
+					public void evicted(String key, Object o, Date stored) {
+						demote(next, key, o, stored);
+					}
+				});
+			}
 		}
+	}
 
-		public Object getObject(String key) throws Exception {
-			return null;
+	private static List<CacheTier> createTiers(ICache firstLevelCache, ICache secondLevelCache) {
+		List<CacheTier> tiers = new ArrayList<CacheTier>();
+		if (firstLevelCache != null) {
+			tiers.add(new CacheTier("first level", firstLevelCache));
 		}
-
-		public long getStoredSizeEstimate(String key) {
-			return 0;
+		if (secondLevelCache != null) {
+			tiers.add(new CacheTier("second level", secondLevelCache));
 		}
+		return tiers;
+	}
 
-		public boolean hasObjectForKey(String key) {
-			return false;
-		}
+	private final CacheTier[] tiers;
 
-		public boolean removeObject(String key) {
-			return true;
-		}
+	private final int retries = 3;
 
-		public void storeObject(String key, Object o) throws Exception {
-		}
+	/**
+	 * the tiers, with their statistics, fastest first
+	 * 
+	 * @return
+	 */
+	public List<CacheTier> getTiers() {
+		return Collections.unmodifiableList(Arrays.asList(tiers));
+	}
 
-		public Iterator<String> iterator() {
-			return null;
-		}
+	private static ICacheEntry createEntry(final Object o, final Date date, final long size) {
+		return new ICacheEntry() {
+
+			public Object getObject() {
+				return o;
+			}
 
+			public Date getDateObjectStored() {
+				return date;
+			}
+
+			public long getStoredSizeEstimate() {
+				return size;
+			}
+		};
 	}
 
 	private static <T> IDataBrowser<T> getInMemoryDataBrowser(final T data) {
@@ -99,26 +168,651 @@ public class ObjectManager implements IObjectManager {
 		};
 	}
 
+	private static <T> IDataBrowser<T> getOnDemandDataBrowser(final ICache cache, final String key,
+			final ICacheMetadata metadata) {
+
+		return new ICacheManager.IMetadataBrowser<T>() {
+
+			private T data;
+
+			@SuppressWarnings("unchecked")
+			public synchronized T browseData() throws Exception {
+				if (data == null) {
+					data = (T) cache.getObject(key);
+				}
+				return data;
+			}
+
+			public synchronized boolean isDataAlreadyInMemory() {
+				return data != null;
+			}
+
+			public ICacheMetadata getMetadata() {
+				return metadata;
+			}
+		};
+	}
+
 	@SuppressWarnings({ "unused", "unchecked" })
 	private static <T> T getObjectFromCache(Map<Object, Object> cache, Object key) {
 		return (T) cache.get(key);
 	}
 
-	private static <T> T createAndStoreData(IManagedData<T> data, ICache[] caches) throws Exception {
-		T newObject = data.createData();
-		return storeData(newObject, data.getID(), caches);
+	private static void store(CacheTier tier, String key, Object o) throws Exception {
+		long t0 = System.nanoTime();
+		tier.getCache().storeObject(key, o);
+		tier.recordStore(System.nanoTime() - t0);
+	}
+
+	/**
+	 * keeps the original storage date, if the tier can
+	 */
+	private static void store(CacheTier tier, String key, Object o, Date stored) throws Exception {
+		if (tier.getCache() instanceof IDatedCache && stored != null) {
+			long t0 = System.nanoTime();
+			((IDatedCache) tier.getCache()).storeObject(key, o, stored);
+			tier.recordStore(System.nanoTime() - t0);
+		} else {
+			store(tier, key, o);
+		}
+	}
+
+	private void storeNewData(Object newObject, IManagedData<?> managedData) throws Exception {
+		String key = managedData.getID();
+		ExpirySweeper sweeper = expirySweeper;
+		Date stored = new Date(clock.currentTimeMillis());
+		for (int i = 0; i < tiers.length; i++) {
+			if (i == 0 || tiers[i].getWritePolicy() == CacheTier.WritePolicy.WRITE_THROUGH) {
+				ICache cache = tiers[i].getCache();
+				if (cache instanceof IMetadataCache) {
+					long t0 = System.nanoTime();
+					((IMetadataCache) cache).storeObject(key, newObject, managedData.getDescription(), null, stored);
+					tiers[i].recordStore(System.nanoTime() - t0);
+				} else {
+					store(tiers[i], key, newObject, stored);
+				}
+			}
+		}
+		if (sweeper != null) {
+			scheduleExpiry(sweeper, managedData, stored);
+		}
+	}
+
+	/**
+	 * copies data found in the given tier to the ones above it
+	 */
+	private void promote(Object o, Date stored, String key, int tier) throws Exception {
+		for (int i = 0; i < tier; i++) {
+			if (tiers[i].isPromoteOnHit()) {
+				store(tiers[i], key, o, stored);
+				tiers[i].recordPromotion();
+			}
+		}
 	}
 
-	private static <T> T storeData(T newObject, String key, ICache[] caches) throws Exception {
-		for (ICache c : caches) {
-			c.storeObject(key, newObject);
+	/**
+	 * copies an object evicted from the tier above, keeping its storage date,
+	 * unless the tier already has a copy at least as new; or unless another
+	 * thread holds its ID, e.g. to store a newer object or remove it, in which
+	 * case the evicted one is dropped rather than written over that
+	 */
+	private void demote(CacheTier tier, String key, Object o, Date stored) {
+		try {
+			if (!lm.tryLockID(key, 0, TimeUnit.MILLISECONDS)) {
+				logger.debugf("not demoting %s to %s while it's locked", key, tier.getName());
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			ICache cache = tier.getCache();
+			if (!cache.hasObjectForKey(key) || isNewer(stored, cache.getDateObjectStored(key))) {
+				store(tier, key, o, stored);
+				tier.recordDemotion();
+			}
+		} catch (Exception e) {
+			logger.warn("can't demote %s to %s", e, key, tier.getName());
+		} finally {
+			lm.unlockID(key);
 		}
-		return newObject;
+	}
+
+	/**
+	 * whether a copy stored at the given date supersedes one stored at the
+	 * other; copies of unknown date don't replace anything
+	 */
+	private static boolean isNewer(Date stored, Date other) {
+		return stored != null && (other == null || stored.after(other));
 	}
 
 	private IDLockManager lm = new IDLockManager();
 
+	private final LatencyHistogram creates = new LatencyHistogram(), lockWaits = new LatencyHistogram();
+
+	private final LongAdder failures = new LongAdder(), removals = new LongAdder();
+
+	private void lockID(String id) throws InterruptedException {
+		long t0 = System.nanoTime();
+		lm.lockID(id);
+		lockWaits.record(System.nanoTime() - t0);
+	}
+
+	private <T> T createData(IManagedData<T> managedData) throws Exception {
+		long t0 = System.nanoTime();
+		try {
+			return managedData.createData();
+		} finally {
+			creates.record(System.nanoTime() - t0);
+		}
+	}
+
+	public ObjectManagerStats getStats() {
+		List<ObjectManagerStats.Tier> list = new ArrayList<ObjectManagerStats.Tier>();
+		for (CacheTier t : tiers) {
+			list.add(new ObjectManagerStats.Tier(t));
+		}
+		return new ObjectManagerStats(list, creates, lockWaits, failures.sum(), removals.sum());
+	}
+
+	/**
+	 * publishes statistics to the platform MBean server, under
+	 * com.xoba.util.data:type=ObjectManager,name=...
+	 * 
+	 * @param name
+	 * @return the registered name, for unregistering
+	 * @throws JMException
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName on = new ObjectName(ObjectManager.class.getPackage().getName() + ":type="
+				+ ObjectManager.class.getSimpleName() + ",name=" + ObjectName.quote(name));
+		ObjectManagerMXBean bean = new ObjectManagerMXBean() {
+
+			public Map<String, Long> getTierHitCounts() {
+				Map<String, Long> out = new LinkedHashMap<String, Long>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getHitCount());
+				}
+				return out;
+			}
+
+			public Map<String, Long> getTierMissCounts() {
+				Map<String, Long> out = new LinkedHashMap<String, Long>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getMissCount());
+				}
+				return out;
+			}
+
+			public Map<String, Double> getTierHitRatios() {
+				Map<String, Double> out = new LinkedHashMap<String, Double>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getHitRatio());
+				}
+				return out;
+			}
+
+			public Map<String, Double> getTierMeanLookupMillis() {
+				Map<String, Double> out = new LinkedHashMap<String, Double>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getMeanLookupMillis());
+				}
+				return out;
+			}
+
+			public Map<String, Long> getTierBytesRead() {
+				Map<String, Long> out = new LinkedHashMap<String, Long>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getBytesRead());
+				}
+				return out;
+			}
+
+			public Map<String, Long> getTierBytesWritten() {
+				Map<String, Long> out = new LinkedHashMap<String, Long>();
+				for (ObjectManagerStats.Tier t : getStats().getTiers()) {
+					out.put(t.getName(), t.getBytesWritten());
+				}
+				return out;
+			}
+
+			public long getCreateCount() {
+				return creates.getCount();
+			}
+
+			public double getCreateMeanMillis() {
+				return creates.getMeanMillis();
+			}
+
+			public double getCreateP50Millis() {
+				return creates.getPercentileMillis(0.5);
+			}
+
+			public double getCreateP99Millis() {
+				return creates.getPercentileMillis(0.99);
+			}
+
+			public long getLockWaitCount() {
+				return lockWaits.getCount();
+			}
+
+			public double getLockWaitMeanMillis() {
+				return lockWaits.getMeanMillis();
+			}
+
+			public double getLockWaitTotalMillis() {
+				return lockWaits.getTotalMillis();
+			}
+
+			public long getRetryCount() {
+				return failures.sum();
+			}
+
+			public long getRemovalCount() {
+				return removals.sum();
+			}
+		};
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, ObjectManagerMXBean.class, true),
+				on);
+		return on;
+	}
+
+	public static final int REFRESH_QUEUE_SIZE = 1000;
+
+	private Executor refreshExecutor;
+
+	// IDs being recreated in the background, with how many times each has
+	// since been removed or stored anew, which is checked under the ID's lock
+	// before storing
+	private final ConcurrentMap<String, AtomicInteger> refreshing = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/**
+	 * where data is recreated for an {@link IRefreshingCacheManager}; by
+	 * default, a daemon thread per processor, with at most
+	 * {@link #REFRESH_QUEUE_SIZE} refreshes waiting, beyond which stale data
+	 * is just served until it's found again
+	 * 
+	 * @param executor
+	 */
+	public synchronized void setRefreshExecutor(Executor executor) {
+		refreshExecutor = executor;
+	}
+
+	private synchronized Executor getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), createDaemonThreadFactory("object manager refresh"));
+			pool.allowCoreThreadTimeOut(true);
+			refreshExecutor = pool;
+		}
+		return refreshExecutor;
+	}
+
+	private static ThreadFactory createDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * schedules at most one background refresh per ID, if the data's cache
+	 * manager asks for it
+	 */
+	private <T> void refreshIfStale(final IManagedData<T> managedData, IDataBrowser<T> browser, Date stored, long size) {
+
+		ICacheManager<T> cm = managedData.getCacheManager();
+
+		if (cm instanceof IRefreshingCacheManager && ((IRefreshingCacheManager<T>) cm).shouldRefresh(browser, stored, size)) {
+
+			final String id = managedData.getID();
+
+			final AtomicInteger generation = new AtomicInteger();
+
+			if (refreshing.putIfAbsent(id, generation) == null) {
+				logger.debugf("refreshing in background: %s", id);
+				try {
+					getRefreshExecutor().execute(new Runnable() {
+						public void run() {
+							try {
+								refresh(managedData, generation);
+							} catch (Exception e) {
+								logger.warn("background refresh failed for %s", e, id);
+							} finally {
+								refreshing.remove(id, generation);
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					refreshing.remove(id, generation);
+					logger.warnf("can't refresh %s: %s", id, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * creates the data without holding its lock, so that callers can keep
+	 * getting the stale data meanwhile, and only locks to store it; unless
+	 * it's been removed or stored anew meanwhile, when the refreshed data is
+	 * no longer current
+	 */
+	private <T> void refresh(IManagedData<T> managedData, AtomicInteger generation) throws Exception {
+		T newObject = createData(managedData);
+		String id = managedData.getID();
+		lockID(id);
+		try {
+			if (generation.get() != 0) {
+				logger.debugf("dropping refreshed %s, superseded meanwhile", id);
+				return;
+			}
+			storeNewData(newObject, managedData);
+		} finally {
+			lm.unlockID(id);
+		}
+	}
+
+	/**
+	 * makes any background refresh of the ID in progress drop its result
+	 */
+	private void supersedeRefresh(String id) {
+		AtomicInteger generation = refreshing.get(id);
+		if (generation != null) {
+			generation.incrementAndGet();
+		}
+	}
+
+	private volatile ExpirySweeper expirySweeper;
+
+	private volatile IClock clock = IClock.SYSTEM;
+
+	/**
+	 * what new data's storage date is taken from, so that it agrees with the
+	 * clock the cache managers judge it by; the system clock by default
+	 * 
+	 * @param clock
+	 */
+	public void setClock(IClock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * starts removing data from all tiers once it expires, for data whose
+	 * cache manager is an {@link IExpiringCacheManager}. data is scheduled for
+	 * removal as it's stored or found
+	 * 
+	 * @param clock
+	 *            which the cache managers should use too, and which new data
+	 *            is dated by from now on
+	 * @param bucketMillis
+	 *            see {@link ExpirySweeper}
+	 * @param ioConcurrency
+	 * @return the running sweeper, for its statistics and to close it
+	 */
+	public synchronized ExpirySweeper startExpirySweeper(IClock clock, long bucketMillis, int ioConcurrency) {
+		if (expirySweeper != null) {
+			throw new IllegalStateException("already sweeping");
+		}
+		final List<ICache> caches = new ArrayList<ICache>();
+		for (CacheTier t : tiers) {
+			caches.add(t.getCache());
+		}
+		ExpirySweeper sweeper = new ExpirySweeper(new ExpirySweeper.IRemover() {
+			public long remove(String key) throws Exception {
+				return removeExpired(caches, key);
+			}
+		}, clock, bucketMillis, ioConcurrency);
+		expirySweeper = sweeper;
+		setClock(clock);
+		sweeper.start();
+		return sweeper;
+	}
+
+	/**
+	 * removes data the sweeper found expired, under its ID's lock, unless
+	 * it's been stored or found again meanwhile, which schedules it anew
+	 * 
+	 * @return estimated size removed, or -1 if kept
+	 */
+	private long removeExpired(List<ICache> caches, String id) throws Exception {
+		lockID(id);
+		try {
+			ExpirySweeper sweeper = expirySweeper;
+			if (sweeper != null && sweeper.isScheduled(id)) {
+				return -1;
+			}
+			return ExpirySweeper.removeFrom(caches, id);
+		} finally {
+			lm.unlockID(id);
+		}
+	}
+
+	private static <T> void scheduleExpiry(ExpirySweeper sweeper, IManagedData<T> managedData, Date stored) {
+		ICacheManager<T> cm = managedData.getCacheManager();
+		if (cm instanceof IExpiringCacheManager && stored != null) {
+			long expiresAt = ((IExpiringCacheManager<T>) cm).getExpirationTime(stored);
+			if (expiresAt != Long.MAX_VALUE) {
+				sweeper.schedule(managedData.getID(), expiresAt);
+			}
+		}
+	}
+
+	// evaluations started by evaluateDataAsync and not yet finished, by ID
+	private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> evaluateDataAsync(final IManagedData<T> managedData, Executor executor) {
+
+		final String id = managedData.getID();
+
+		CompletableFuture<Object> shared = inFlight.get(id);
+
+		if (shared == null) {
+			final CompletableFuture<Object> created = new CompletableFuture<Object>();
+			shared = inFlight.putIfAbsent(id, created);
+			if (shared == null) {
+				shared = created;
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								Object data = evaluateData(managedData);
+								inFlight.remove(id, created);
+								created.complete(data);
+							} catch (Throwable t) {
+								inFlight.remove(id, created);
+								created.completeExceptionally(t);
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					inFlight.remove(id, created);
+					created.completeExceptionally(e);
+				}
+			} else {
+				logger.debugf("coalescing request for %s", id);
+			}
+		}
+
+		// each caller gets its own dependent future, so that one caller
+		// cancelling or completing it can't affect the others
+		return shared.thenApply(new Function<Object, T>() {
+			public T apply(Object o) {
+				return (T) o;
+			}
+		});
+	}
+
+	private volatile AccessLog accessLog;
+
+	/**
+	 * records every ID evaluated, for warming up after a restart
+	 * 
+	 * @param log
+	 *            or null to stop recording
+	 */
+	public void setAccessLog(AccessLog log) {
+		accessLog = log;
+	}
+
+	public static interface IWarmUpMonitor {
+
+		/**
+		 * called from the loading threads as each ID is finished with
+		 * 
+		 * @param loaded
+		 *            whether the ID's object was copied to the top tier
+		 */
+		public void warmedUp(String id, boolean loaded, int done, int total);
+
+	}
+
+	/**
+	 * copies the objects for the given IDs from lower tiers into the ones
+	 * above, e.g. from files into memory, before letting traffic in. objects
+	 * already in the top tier are left alone, and nothing is created.
+	 * 
+	 * @param ids
+	 * @param concurrency
+	 *            number of IDs loaded at once
+	 * @param monitor
+	 *            may be null
+	 * @return number of objects loaded
+	 * @throws InterruptedException
+	 */
+	public int warmUp(Collection<String> ids, int concurrency, final IWarmUpMonitor monitor) throws InterruptedException {
+		final int total = ids.size();
+		final AtomicInteger done = new AtomicInteger(), loaded = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(concurrency, createDaemonThreadFactory("object manager warm-up"));
+		try {
+			for (final String id : ids) {
+				pool.execute(new Runnable() {
+					public void run() {
+						boolean ok = false;
+						try {
+							ok = warmUp(id);
+						} catch (Exception e) {
+							logger.warn("can't warm up %s", e, id);
+						}
+						if (ok) {
+							loaded.incrementAndGet();
+						}
+						int n = done.incrementAndGet();
+						if (monitor != null) {
+							monitor.warmedUp(id, ok, n, total);
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			pool.shutdownNow();
+		}
+		logger.debugf("warmed up %d of %d objects", loaded.get(), total);
+		return loaded.get();
+	}
+
+	/**
+	 * warms up with the most recent IDs in the log
+	 */
+	public int warmUp(AccessLog log, int concurrency, IWarmUpMonitor monitor) throws InterruptedException {
+		return warmUp(log.getRecentIDs(), concurrency, monitor);
+	}
+
+	private boolean warmUp(String id) throws Exception {
+		lockID(id);
+		try {
+			if (tiers.length < 2 || tiers[0].getCache().hasObjectForKey(id)) {
+				return false;
+			}
+			for (int i = 1; i < tiers.length; i++) {
+				ICache cache = tiers[i].getCache();
+				if (cache.hasObjectForKey(id)) {
+					Date stored = cache.getDateObjectStored(id);
+					Object o = cache.getObject(id);
+					if (o != null) {
+						promote(o, stored, id, i);
+						return true;
+					}
+				}
+			}
+			return false;
+		} finally {
+			lm.unlockID(id);
+		}
+	}
+
+	private final DependencyGraph dependencies = new DependencyGraph();
+
+	/**
+	 * removes the data and everything computed from it, as declared by
+	 * {@link IDependentManagedData} evaluated so far. dependents are
+	 * recomputed lazily, when next evaluated
+	 * 
+	 * @param id
+	 * @return the IDs removed
+	 */
+	public Set<String> invalidate(String id) {
+		Set<String> ids = new LinkedHashSet<String>();
+		ids.add(id);
+		ids.addAll(dependencies.getDependents(id));
+		for (String i : ids) {
+			removeDataFromManagement(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * removes the data and everything computed from it, then recomputes the
+	 * dependents on the executor, in waves so that each only starts once
+	 * everything it depends on is done. a failure stops later waves
+	 * 
+	 * @param id
+	 * @param executor
+	 * @return the IDs recomputed
+	 */
+	public CompletableFuture<Set<String>> invalidate(String id, final Executor executor) {
+		final Set<String> recomputed = ConcurrentHashMap.newKeySet();
+		CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+		for (final List<String> wave : dependencies.getWaves(invalidate(id))) {
+			chain = chain.thenCompose(new Function<Void, CompletionStage<Void>>() {
+				public CompletionStage<Void> apply(Void v) {
+					List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>();
+					for (final String i : wave) {
+						IManagedData<?> d = dependencies.getData(i);
+						if (d != null) {
+							futures.add(evaluateDataAsync(d, executor).thenRun(new Runnable() {
+								public void run() {
+									recomputed.add(i);
+								}
+							}));
+						}
+					}
+					return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+				}
+			});
+		}
+		return chain.thenApply(new Function<Void, Set<String>>() {
+			public Set<String> apply(Void v) {
+				return recomputed;
+			}
+		});
+	}
+
 	public <T> T evaluateData(IManagedData<T> managedData) throws Exception {
+		AccessLog log = accessLog;
+		if (log != null) {
+			log.record(managedData.getID());
+		}
+		if (managedData instanceof IDependentManagedData) {
+			dependencies.declare((IDependentManagedData<?>) managedData);
+		}
 		boolean done = false;
 		int tries = 0;
 		T data = null;
@@ -139,6 +833,7 @@ public class ObjectManager implements IObjectManager {
 				t = e;
 			}
 			if (t != null) {
+				failures.increment();
 				boolean removed = removeDataFromManagement(managedData.getID());
 				logger.warn("exception getting " + managedData.getID() + " on try " + tries, t);
 
@@ -157,60 +852,127 @@ public class ObjectManager implements IObjectManager {
 	@SuppressWarnings("unchecked")
 	private <T> T evaluateDataOnce(IManagedData<T> managedData) throws Exception {
 
-		lm.lockID(managedData.getID());
-
-		try {
-			ICache[] allCaches = new ICache[] { firstLevelCache, secondLevelCache };
-			ICache[] memoryCachesOnly = new ICache[] { firstLevelCache };
+		String key = managedData.getID();
 
-			String key = managedData.getID();
+		lockID(key);
 
-			if (firstLevelCache.hasObjectForKey(key)) {
-				// object is already in memory
-
-				T cachedObject = (T) firstLevelCache.getObject(key);
-				IDataBrowser<T> browser = getInMemoryDataBrowser(cachedObject);
-
-				boolean canUseCached = managedData.getCacheManager().canUsePreviouslyCachedData(browser,
-						firstLevelCache.getDateObjectStored(key), firstLevelCache.getStoredSizeEstimate(key));
+		try {
+			ICanClose processLock = null;
+			try {
+				for (int i = 0; i < tiers.length; i++) {
+					ICache cache = tiers[i].getCache();
+
+					if (processLock == null && cache instanceof ILockableCache) {
+						// other processes sharing this tier may be creating the
+						// object too; whoever gets here second finds the first
+						// one's object
+						long t0 = System.nanoTime();
+						processLock = ((ILockableCache) cache).lockKey(key);
+						lockWaits.record(System.nanoTime() - t0);
+					}
+
+					ICacheEntry found = lookUp(tiers[i], managedData);
+
+					if (found != null) {
+						promote(found.getObject(), found.getDateObjectStored(), key, i);
+						ExpirySweeper sweeper = expirySweeper;
+						if (sweeper != null) {
+							scheduleExpiry(sweeper, managedData, found.getDateObjectStored());
+						}
+						return (T) found.getObject();
+					}
+				}
 
-				if (canUseCached) {
-					return cachedObject;
-				} else {
-					return createAndStoreData(managedData, allCaches);
+				// object needs to be created and cached from scratch
+				logger.debugf("creating object from scratch: %s", key);
+				T newObject = createData(managedData);
+				supersedeRefresh(key);
+				storeNewData(newObject, managedData);
+				return newObject;
+
+			} finally {
+				if (processLock != null) {
+					processLock.close();
 				}
+			}
+		} finally {
+			lm.unlockID(key);
+		}
+	}
 
-			} else if (secondLevelCache.hasObjectForKey(managedData.getID())) {
-				// object is not in memory, but possibly in a file
+	/**
+	 * @return usable data from the tier, or null if there isn't any
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> ICacheEntry lookUp(CacheTier tier, IManagedData<T> managedData) throws Exception {
 
-				IDataBrowser<T> browser = getOnDemandDataBrowser(secondLevelCache, key);
+		String key = managedData.getID();
+		ICache cache = tier.getCache();
 
-				boolean canUseCached = managedData.getCacheManager().canUsePreviouslyCachedData(browser,
-						secondLevelCache.getDateObjectStored(key), secondLevelCache.getStoredSizeEstimate(key));
+		long t0 = System.nanoTime();
+		ICacheEntry found = null;
 
-				if (canUseCached) {
-					T object = browser.browseData();
-					storeData(object, key, memoryCachesOnly);
-					return object;
-				} else {
-					return createAndStoreData(managedData, allCaches);
+		try {
+			IDataBrowser<T> browser;
+			Date stored;
+			long size;
+
+			if (cache instanceof IOnHeapCache) {
+				// object and metadata at once, from memory; caches that would
+				// have to read the object to return it are left to load it only
+				// if needed, below
+				ICacheEntry entry = ((IOnHeapCache) cache).getEntry(key);
+				if (entry == null) {
+					return null;
 				}
-
+				browser = getInMemoryDataBrowser((T) entry.getObject());
+				stored = entry.getDateObjectStored();
+				size = entry.getStoredSizeEstimate();
+			} else if (cache instanceof IMetadataCache) {
+				// metadata alone, the object only loaded if needed
+				ICacheMetadata md = ((IMetadataCache) cache).getMetadata(key);
+				if (md == null) {
+					return null;
+				}
+				browser = getOnDemandDataBrowser(cache, key, md);
+				stored = md.getDateObjectStored();
+				size = md.getStoredSizeEstimate();
+			} else if (cache.hasObjectForKey(key)) {
+				// object is possibly in a file, only loaded if needed
+				browser = getOnDemandDataBrowser(cache, key);
+				stored = cache.getDateObjectStored(key);
+				size = cache.getStoredSizeEstimate(key);
 			} else {
-				// object needs to be created and cached from scratch
-				logger.debugf("creating object from scratch: %s", managedData.getID());
-				return createAndStoreData(managedData, allCaches);
+				return null;
 			}
+
+			if (managedData.getCacheManager().canUsePreviouslyCachedData(browser, stored, size)) {
+				found = createEntry(browser.browseData(), stored, size);
+				refreshIfStale(managedData, browser, stored, size);
+			}
+
+			return found;
+
 		} finally {
-			lm.unlockID(managedData.getID());
+			tier.recordLookup(found != null, System.nanoTime() - t0);
 		}
 	}
 
 	public boolean removeDataFromManagement(String id) {
 		logger.debugf("removing from management: %s", id);
-		boolean a = firstLevelCache.removeObject(id);
-		boolean b = secondLevelCache.removeObject(id);
-		return a && b;
+		removals.increment();
+		supersedeRefresh(id);
+		ExpirySweeper sweeper = expirySweeper;
+		if (sweeper != null) {
+			sweeper.cancel(id);
+		}
+		boolean removed = true;
+		for (CacheTier t : tiers) {
+			if (!t.getCache().removeObject(id)) {
+				removed = false;
+			}
+		}
+		return removed;
 	}
 
 }
@@ -0,0 +1,45 @@
+package com.xoba.util.data;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ObjectManagerStats}; see
+ * {@link ObjectManager#registerMBean(String)}
+ *
+ */
+public interface ObjectManagerMXBean {
+
+	/**
+	 * by tier name
+	 */
+	public Map<String, Long> getTierHitCounts();
+
+	public Map<String, Long> getTierMissCounts();
+
+	public Map<String, Double> getTierHitRatios();
+
+	public Map<String, Double> getTierMeanLookupMillis();
+
+	public Map<String, Long> getTierBytesRead();
+
+	public Map<String, Long> getTierBytesWritten();
+
+	public long getCreateCount();
+
+	public double getCreateMeanMillis();
+
+	public double getCreateP50Millis();
+
+	public double getCreateP99Millis();
+
+	public long getLockWaitCount();
+
+	public double getLockWaitMeanMillis();
+
+	public double getLockWaitTotalMillis();
+
+	public long getRetryCount();
+
+	public long getRemovalCount();
+
+}
@@ -0,0 +1,199 @@
+package com.xoba.util.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * point-in-time copy of an {@link ObjectManager}'s statistics
+ *
+ */
+public class ObjectManagerStats {
+
+	public static class Tier {
+
+		private final String name;
+
+		private final long hits, misses, stores, promotions, demotions, bytesRead, bytesWritten;
+
+		private final double meanLookupMillis, meanStoreMillis;
+
+		Tier(CacheTier t) {
+			name = t.getName();
+			hits = t.getHitCount();
+			misses = t.getMissCount();
+			stores = t.getStoreCount();
+			promotions = t.getPromotionCount();
+			demotions = t.getDemotionCount();
+			meanLookupMillis = t.getMeanLookupMillis();
+			meanStoreMillis = t.getMeanStoreMillis();
+			if (t.getCache() instanceof FileCache) {
+				FileCache fc = (FileCache) t.getCache();
+				bytesRead = fc.getBytesRead();
+				bytesWritten = fc.getBytesWritten();
+			} else {
+				bytesRead = 0;
+				bytesWritten = 0;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getHitCount() {
+			return hits;
+		}
+
+		public long getMissCount() {
+			return misses;
+		}
+
+		public double getHitRatio() {
+			return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+		}
+
+		public double getMeanLookupMillis() {
+			return meanLookupMillis;
+		}
+
+		public long getStoreCount() {
+			return stores;
+		}
+
+		public double getMeanStoreMillis() {
+			return meanStoreMillis;
+		}
+
+		public long getPromotionCount() {
+			return promotions;
+		}
+
+		public long getDemotionCount() {
+			return demotions;
+		}
+
+		/**
+		 * for file caches, otherwise 0
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		/**
+		 * for file caches, otherwise 0
+		 */
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%s: hits = %d; misses = %d; hit ratio = %.3f; lookup = %.3f ms; stores = %d; store = %.3f ms; promotions = %d; demotions = %d; read = %,d bytes; written = %,d bytes",
+					name, hits, misses, getHitRatio(), meanLookupMillis, stores, meanStoreMillis, promotions, demotions,
+					bytesRead, bytesWritten);
+		}
+	}
+
+	private final List<Tier> tiers;
+
+	private final long creates, lockWaits, retries, removals;
+
+	private final double createMeanMillis, createP50Millis, createP99Millis, createMaxMillis;
+
+	private final double lockWaitMeanMillis, lockWaitP99Millis, lockWaitTotalMillis;
+
+	ObjectManagerStats(List<Tier> tiers, LatencyHistogram creates, LatencyHistogram lockWaits, long retries,
+			long removals) {
+		this.tiers = Collections.unmodifiableList(tiers);
+		this.creates = creates.getCount();
+		this.createMeanMillis = creates.getMeanMillis();
+		this.createP50Millis = creates.getPercentileMillis(0.5);
+		this.createP99Millis = creates.getPercentileMillis(0.99);
+		this.createMaxMillis = creates.getPercentileMillis(1);
+		this.lockWaits = lockWaits.getCount();
+		this.lockWaitMeanMillis = lockWaits.getMeanMillis();
+		this.lockWaitP99Millis = lockWaits.getPercentileMillis(0.99);
+		this.lockWaitTotalMillis = lockWaits.getTotalMillis();
+		this.retries = retries;
+		this.removals = removals;
+	}
+
+	/**
+	 * fastest first
+	 */
+	public List<Tier> getTiers() {
+		return tiers;
+	}
+
+	/**
+	 * calls to createData, including background refreshes
+	 */
+	public long getCreateCount() {
+		return creates;
+	}
+
+	public double getCreateMeanMillis() {
+		return createMeanMillis;
+	}
+
+	/**
+	 * to within a factor of two, as are the other percentiles
+	 */
+	public double getCreateP50Millis() {
+		return createP50Millis;
+	}
+
+	public double getCreateP99Millis() {
+		return createP99Millis;
+	}
+
+	public double getCreateMaxMillis() {
+		return createMaxMillis;
+	}
+
+	/**
+	 * acquisitions of in-process and cross-process locks
+	 */
+	public long getLockWaitCount() {
+		return lockWaits;
+	}
+
+	public double getLockWaitMeanMillis() {
+		return lockWaitMeanMillis;
+	}
+
+	public double getLockWaitP99Millis() {
+		return lockWaitP99Millis;
+	}
+
+	public double getLockWaitTotalMillis() {
+		return lockWaitTotalMillis;
+	}
+
+	/**
+	 * failed attempts in evaluateData
+	 */
+	public long getRetryCount() {
+		return retries;
+	}
+
+	public long getRemovalCount() {
+		return removals;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		for (Tier t : tiers) {
+			buf.append(t).append('\n');
+		}
+		buf.append(String.format(
+				"creates = %d; mean = %.3f ms; p50 < %.3f ms; p99 < %.3f ms; max < %.3f ms%n"
+						+ "lock waits = %d; mean = %.3f ms; p99 < %.3f ms; total = %.1f ms%nretries = %d; removals = %d",
+				creates, createMeanMillis, createP50Millis, createP99Millis, createMaxMillis, lockWaits,
+				lockWaitMeanMillis, lockWaitP99Millis, lockWaitTotalMillis, retries, removals));
+		return buf.toString();
+	}
+
+}
@@ -0,0 +1,552 @@
+package com.xoba.util.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.xoba.util.ICanClose;
+
+/**
+ * cache keeping serialized objects outside the java heap, in direct or
+ * memory-mapped pages, so that large amounts of cached data don't lengthen
+ * garbage collection. objects are serialized when stored and deserialized on
+ * every read.
+ *
+ * memory is handed out by a slab allocator: each page is cut into equal
+ * chunks of one size class, and an entry occupies chunks of the smallest
+ * class that fits it, or whole pages plus a smaller chunk if it's bigger
+ * than a page. pages which become empty go back to a common pool for any
+ * size class to reuse. when the capacity is reached, least recently used
+ * entries are evicted.
+ *
+ */
+public class OffHeapCache implements IEntryCache, IEvictingCache, IDatedCache, ICanClose {
+
+	public static final int DEFAULT_PAGE_SIZE = 1 << 20;
+
+	private static final int MIN_CHUNK_SIZE = 64;
+
+	private static final double GROWTH_FACTOR = 1.25;
+
+	private final class Page {
+
+		private final int index;
+
+		private final ByteBuffer buffer;
+
+		private int sizeClass = -1;
+
+		private int[] free;
+
+		private int freeCount;
+
+		public Page(int index, ByteBuffer buffer) {
+			this.index = index;
+			this.buffer = buffer;
+		}
+
+		public void assign(int sizeClass) {
+			this.sizeClass = sizeClass;
+			int n = pageSize / chunkSizes[sizeClass];
+			free = new int[n];
+			for (int i = 0; i < n; i++) {
+				free[i] = n - 1 - i;
+			}
+			freeCount = n;
+		}
+
+		public int chunkCount() {
+			return free.length;
+		}
+	}
+
+	/**
+	 * an evicted entry's bytes, copied out before its chunks are reused
+	 */
+	private static final class Evicted {
+
+		private final String key;
+
+		private final byte[] bytes;
+
+		private final Date date;
+
+		public Evicted(String key, byte[] bytes, Date date) {
+			this.key = key;
+			this.bytes = bytes;
+			this.date = date;
+		}
+	}
+
+	private static final class Entry implements ICacheEntry {
+
+		private final long[] chunks;
+
+		private final int length;
+
+		private final Date date;
+
+		// only set on copies handed out by getEntry
+		private Object object;
+
+		public Entry(long[] chunks, int length, Date date) {
+			this.chunks = chunks;
+			this.length = length;
+			this.date = date;
+		}
+
+		public Object getObject() {
+			return object;
+		}
+
+		public Date getDateObjectStored() {
+			return date;
+		}
+
+		/**
+		 * exact serialized size
+		 */
+		public long getStoredSizeEstimate() {
+			return length;
+		}
+	}
+
+	private final ICodec codec;
+
+	private final int pageSize, maxPages;
+
+	private final int[] chunkSizes;
+
+	private final FileChannel mapped;
+
+	private final List<Page> pages = new ArrayList<Page>();
+
+	// pages not assigned to any size class
+	private final Deque<Page> unassigned = new ArrayDeque<Page>();
+
+	// for each size class, its pages with free chunks
+	private final List<Set<Page>> partial = new ArrayList<Set<Page>>();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long storedBytes;
+
+	private long hits, misses, evictions, rejections;
+
+	private IEvictionListener listener;
+
+	/**
+	 * in direct memory, with the binary codec
+	 *
+	 * @param capacity
+	 *            in bytes
+	 */
+	public OffHeapCache(long capacity) throws IOException {
+		this(capacity, DEFAULT_PAGE_SIZE, new BinaryCodec(), null);
+	}
+
+	/**
+	 * @param capacity
+	 *            in bytes, rounded down to whole pages
+	 * @param pageSize
+	 * @param codec
+	 * @param mappedFile
+	 *            if not null, pages are mapped from this file instead of
+	 *            allocated directly; its contents are discarded
+	 * @throws IOException
+	 */
+	public OffHeapCache(long capacity, int pageSize, ICodec codec, File mappedFile) throws IOException {
+		if (pageSize < MIN_CHUNK_SIZE || capacity < pageSize) {
+			throw new IllegalArgumentException("bad page size or capacity: " + pageSize + ", " + capacity);
+		}
+		if (capacity / pageSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many pages: " + capacity / pageSize);
+		}
+		this.codec = codec;
+		this.pageSize = pageSize;
+		this.maxPages = (int) (capacity / pageSize);
+
+		List<Integer> sizes = new ArrayList<Integer>();
+		int size = MIN_CHUNK_SIZE;
+		while (size < pageSize) {
+			sizes.add(size);
+			// multiples of 8
+			size = Math.max(size + 8, (int) (size * GROWTH_FACTOR) & ~7);
+		}
+		sizes.add(pageSize);
+		chunkSizes = new int[sizes.size()];
+		for (int i = 0; i < chunkSizes.length; i++) {
+			chunkSizes[i] = sizes.get(i);
+			partial.add(new LinkedHashSet<Page>());
+		}
+
+		if (mappedFile == null) {
+			mapped = null;
+		} else {
+			RandomAccessFile raf = new RandomAccessFile(mappedFile, "rw");
+			raf.setLength(0);
+			mapped = raf.getChannel();
+		}
+	}
+
+	private static long address(Page page, int chunk) {
+		return (long) page.index << 32 | chunk;
+	}
+
+	private static int pageIndex(long address) {
+		return (int) (address >>> 32);
+	}
+
+	private static int chunkIndex(long address) {
+		return (int) address;
+	}
+
+	private int sizeClass(int length) {
+		int lo = 0, hi = chunkSizes.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (chunkSizes[mid] < length) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private Page newPage() throws IOException {
+		if (!unassigned.isEmpty()) {
+			return unassigned.pop();
+		}
+		if (pages.size() == maxPages) {
+			return null;
+		}
+		ByteBuffer buffer;
+		if (mapped == null) {
+			buffer = ByteBuffer.allocateDirect(pageSize);
+		} else {
+			buffer = mapped.map(FileChannel.MapMode.READ_WRITE, (long) pages.size() * pageSize, pageSize);
+		}
+		Page page = new Page(pages.size(), buffer);
+		pages.add(page);
+		return page;
+	}
+
+	/**
+	 * @return address of a chunk of the given class, or -1 if there's no room
+	 */
+	private long allocate(int sizeClass) throws IOException {
+		Set<Page> candidates = partial.get(sizeClass);
+		Page page;
+		if (candidates.isEmpty()) {
+			page = newPage();
+			if (page == null) {
+				return -1;
+			}
+			page.assign(sizeClass);
+			candidates.add(page);
+		} else {
+			page = candidates.iterator().next();
+		}
+		int chunk = page.free[--page.freeCount];
+		if (page.freeCount == 0) {
+			candidates.remove(page);
+		}
+		return address(page, chunk);
+	}
+
+	private void free(long address) {
+		Page page = pages.get(pageIndex(address));
+		Set<Page> candidates = partial.get(page.sizeClass);
+		if (page.freeCount == 0) {
+			candidates.add(page);
+		}
+		page.free[page.freeCount++] = chunkIndex(address);
+		if (page.freeCount == page.chunkCount()) {
+			candidates.remove(page);
+			page.sizeClass = -1;
+			page.free = null;
+			unassigned.push(page);
+		}
+	}
+
+	private void free(long[] chunks) {
+		for (long a : chunks) {
+			free(a);
+		}
+	}
+
+	/**
+	 * sizes of the chunks holding an entry of the given length
+	 */
+	private int[] chunkClasses(int length) {
+		int whole = length / pageSize;
+		int rest = length % pageSize;
+		int[] classes = new int[whole + (rest > 0 || whole == 0 ? 1 : 0)];
+		int top = chunkSizes.length - 1;
+		for (int i = 0; i < whole; i++) {
+			classes[i] = top;
+		}
+		if (whole < classes.length) {
+			classes[whole] = sizeClass(rest);
+		}
+		return classes;
+	}
+
+	/**
+	 * @return chunks holding the bytes, or null if they can't fit
+	 */
+	private long[] write(byte[] bytes, int length, List<Evicted> evicted) throws IOException {
+		int[] classes = chunkClasses(length);
+		if (classes.length > maxPages) {
+			return null;
+		}
+		long[] chunks = new long[classes.length];
+		for (int i = 0; i < chunks.length; i++) {
+			long a;
+			while ((a = allocate(classes[i])) < 0) {
+				if (entries.isEmpty()) {
+					// too big, even for an empty cache
+					for (int j = 0; j < i; j++) {
+						free(chunks[j]);
+					}
+					return null;
+				}
+				evictEldest(evicted);
+			}
+			chunks[i] = a;
+		}
+		int offset = 0;
+		for (long a : chunks) {
+			Page page = pages.get(pageIndex(a));
+			int n = Math.min(chunkSizes[page.sizeClass], length - offset);
+			ByteBuffer b = page.buffer.duplicate();
+			b.position(chunkIndex(a) * chunkSizes[page.sizeClass]);
+			b.put(bytes, offset, n);
+			offset += n;
+		}
+		return chunks;
+	}
+
+	private byte[] read(Entry e) {
+		byte[] bytes = new byte[e.length];
+		int offset = 0;
+		for (long a : e.chunks) {
+			Page page = pages.get(pageIndex(a));
+			int n = Math.min(chunkSizes[page.sizeClass], e.length - offset);
+			ByteBuffer b = page.buffer.duplicate();
+			b.position(chunkIndex(a) * chunkSizes[page.sizeClass]);
+			b.get(bytes, offset, n);
+			offset += n;
+		}
+		return bytes;
+	}
+
+	private void evictEldest(List<Evicted> evicted) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		Map.Entry<String, Entry> eldest = it.next();
+		it.remove();
+		Entry e = eldest.getValue();
+		if (evicted != null) {
+			// copied, since the chunks are about to be reused
+			evicted.add(new Evicted(eldest.getKey(), read(e), e.date));
+		}
+		free(e.chunks);
+		storedBytes -= e.length;
+		evictions++;
+	}
+
+	private byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		codec.serialize(o, bout);
+		return bout.toByteArray();
+	}
+
+	private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		return codec.deserialize(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * the returned entry holds its own deserialized copy of the object
+	 */
+	public ICacheEntry getEntry(String key) throws IOException, ClassNotFoundException {
+		Entry e;
+		byte[] bytes;
+		synchronized (this) {
+			e = entries.get(key);
+			if (e == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			bytes = read(e);
+		}
+		Entry copy = new Entry(e.chunks, e.length, e.date);
+		copy.object = deserialize(bytes);
+		return copy;
+	}
+
+	public Object getObject(String key) throws IOException, ClassNotFoundException {
+		byte[] bytes;
+		synchronized (this) {
+			Entry e = entries.get(key);
+			if (e == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			bytes = read(e);
+		}
+		return deserialize(bytes);
+	}
+
+	public synchronized boolean hasObjectForKey(String key) {
+		return entries.containsKey(key);
+	}
+
+	public synchronized Date getDateObjectStored(String key) {
+		Entry e = entries.get(key);
+		return e == null ? null : e.date;
+	}
+
+	/**
+	 * the exact serialized size
+	 */
+	public synchronized long getStoredSizeEstimate(String key) {
+		Entry e = entries.get(key);
+		return e == null ? 0 : e.length;
+	}
+
+	public void storeObject(String key, Object o) throws IOException, ClassNotFoundException {
+		storeObject(key, o, new Date());
+	}
+
+	public void storeObject(String key, Object o, Date stored) throws IOException, ClassNotFoundException {
+		byte[] bytes = serialize(o);
+		IEvictionListener l;
+		List<Evicted> evicted;
+		boolean rejected;
+		synchronized (this) {
+			l = listener;
+			evicted = l == null ? null : new ArrayList<Evicted>();
+			remove(key);
+			long[] chunks = write(bytes, bytes.length, evicted);
+			rejected = chunks == null;
+			if (rejected) {
+				rejections++;
+			} else {
+				entries.put(key, new Entry(chunks, bytes.length, stored));
+				storedBytes += bytes.length;
+			}
+		}
+		if (l != null) {
+			for (Evicted e : evicted) {
+				l.evicted(e.key, deserialize(e.bytes), e.date);
+			}
+			if (rejected) {
+				l.evicted(key, o, stored);
+			}
+		}
+	}
+
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e != null) {
+			free(e.chunks);
+			storedBytes -= e.length;
+		}
+	}
+
+	public synchronized boolean removeObject(String key) {
+		remove(key);
+		return true;
+	}
+
+	public synchronized void setEvictionListener(IEvictionListener listener) {
+		this.listener = listener;
+	}
+
+	public synchronized Iterator<String> iterator() {
+		return new TreeSet<String>(entries.keySet()).iterator();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * serialized bytes of all entries
+	 */
+	public synchronized long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/**
+	 * bytes of off-heap memory in use, including free chunks and pages
+	 */
+	public synchronized long getAllocatedBytes() {
+		return (long) pages.size() * pageSize;
+	}
+
+	public synchronized long getCapacity() {
+		return (long) maxPages * pageSize;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * entries too big to fit at all
+	 */
+	public synchronized long getRejectionCount() {
+		return rejections;
+	}
+
+	/**
+	 * drops all entries and releases the pages to the garbage collector
+	 */
+	public synchronized void close() throws IOException {
+		entries.clear();
+		pages.clear();
+		unassigned.clear();
+		for (Set<Page> s : partial) {
+			s.clear();
+		}
+		storedBytes = 0;
+		if (mapped != null) {
+			mapped.close();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"entries = %d; stored = %,d bytes; allocated = %,d/%,d bytes; hits = %d; misses = %d; evictions = %d; rejections = %d",
+				entries.size(), storedBytes, getAllocatedBytes(), getCapacity(), hits, misses, evictions, rejections);
+	}
+
+}
@@ -0,0 +1,641 @@
+package com.xoba.util.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.xoba.util.ICanClose;
+import com.xoba.util.ILogger;
+import com.xoba.util.LogFactory;
+
+/**
+ * log-structured cache: objects are appended as records to large,
+ * memory-mapped segment files, and located through an in-memory index which
+ * is rebuilt by scanning the segments on startup.
+ *
+ * superseded and removed records are reclaimed by a background compactor,
+ * which copies the live records of mostly-dead segments forward and deletes
+ * the old segment files.
+ *
+ * record layout: magic, crc, key length, value length (-1 for a removal),
+ * timestamp, key bytes, value bytes
+ *
+ */
+public class SegmentFileCache implements IEntryCache, IDatedCache, ICanClose {
+
+	private static final ILogger logger = LogFactory.getDefault().create();
+
+	private static final int MAGIC = 0x5E6A11ED;
+
+	private static final int HEADER_SIZE = 24;
+
+	private static final int TOMBSTONE = -1;
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * fraction of a sealed segment's bytes that must be dead before it's
+	 * compacted
+	 */
+	public static final double COMPACTION_THRESHOLD = 0.5;
+
+	private static final class Segment {
+
+		private final long id;
+
+		private final File file;
+
+		// null once the segment's compacted away or the cache is closed, so
+		// that nothing but readers still using it keeps the mapping alive
+		private volatile MappedByteBuffer buffer;
+
+		// guarded by the cache's write lock
+		private int writePosition;
+
+		// guarded by the cache's write lock
+		private long deadBytes;
+
+		public Segment(long id, File file, int size) throws IOException {
+			this.id = id;
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel chan = raf.getChannel();
+				this.buffer = chan.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, chan.size()));
+			} finally {
+				// the mapping stays valid after the channel is closed
+				raf.close();
+			}
+		}
+
+		public int capacity() {
+			return buffer.capacity();
+		}
+
+		public void retire() {
+			buffer = null;
+		}
+
+		@Override
+		public String toString() {
+			return file.getName();
+		}
+	}
+
+	private static final class Location {
+
+		private final Segment segment;
+
+		private final int offset;
+
+		private final int keyLength, valueLength;
+
+		private final long timestamp;
+
+		private final boolean compressed;
+
+		public Location(Segment segment, int offset, int keyLength, int valueLength, long timestamp, boolean compressed) {
+			this.segment = segment;
+			this.offset = offset;
+			this.keyLength = keyLength;
+			this.valueLength = valueLength;
+			this.timestamp = timestamp;
+			this.compressed = compressed;
+		}
+
+		public int recordLength() {
+			return HEADER_SIZE + keyLength + Math.max(0, valueLength);
+		}
+
+		/**
+		 * @param mapped
+		 *            the segment's buffer, while it's still mapped
+		 */
+		public Object readValue(ByteBuffer mapped) throws IOException, ClassNotFoundException {
+			ByteBuffer b = mapped.duplicate();
+			b.position(offset + HEADER_SIZE + keyLength);
+			b.limit(offset + HEADER_SIZE + keyLength + valueLength);
+			InputStream in = new ByteBufferInputStream(b);
+			if (compressed) {
+				in = new GZIPInputStream(in, 65536);
+			}
+			ObjectInputStream oin = new ObjectInputStream(new BufferedInputStream(in, 65536));
+			try {
+				return oin.readObject();
+			} finally {
+				oin.close();
+			}
+		}
+
+		public Date getDateObjectStored() {
+			return new Date(timestamp);
+		}
+
+		public long getStoredSizeEstimate() {
+			return valueLength;
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	private final File dir;
+
+	private final boolean compressed;
+
+	private final int segmentSize;
+
+	private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+	private final SortedMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+
+	private final Object writeLock = new Object();
+
+	// guarded by writeLock
+	private boolean closed;
+
+	// guarded by writeLock
+	private Segment active;
+
+	private final ScheduledExecutorService compactor;
+
+	public SegmentFileCache(File dir) throws IOException {
+		this(dir, false, DEFAULT_SEGMENT_SIZE, 60);
+	}
+
+	/**
+	 * @param dir
+	 * @param compressed
+	 *            whether values are gzipped
+	 * @param segmentSize
+	 *            size of each segment file; larger objects get a segment of
+	 *            their own
+	 * @param compactionPeriodSeconds
+	 *            how often to look for segments to compact, or zero to only
+	 *            compact when {@link #compact()} is called
+	 * @throws IOException
+	 */
+	public SegmentFileCache(File dir, boolean compressed, int segmentSize, long compactionPeriodSeconds) throws IOException {
+		if (segmentSize <= HEADER_SIZE) {
+			throw new IllegalArgumentException("segment size too small: " + segmentSize);
+		}
+		this.dir = dir;
+		this.compressed = compressed;
+		this.segmentSize = segmentSize;
+		dir.mkdirs();
+		recover();
+		if (compactionPeriodSeconds > 0) {
+			compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "segment compactor: " + SegmentFileCache.this.dir);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			compactor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						compact();
+					} catch (Exception e) {
+						logger.warn("compaction failed for %s", e, SegmentFileCache.this.dir);
+					}
+				}
+			}, compactionPeriodSeconds, compactionPeriodSeconds, TimeUnit.SECONDS);
+		} else {
+			compactor = null;
+		}
+	}
+
+	private File getSegmentFile(long id) {
+		return new File(dir, String.format("segment-%012d.log", id));
+	}
+
+	private static long parseSegmentID(String name) {
+		if (name.startsWith("segment-") && name.endsWith(".log")) {
+			try {
+				return Long.parseLong(name.substring(8, name.length() - 4));
+			} catch (NumberFormatException e) {
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * rebuilds the index by replaying every segment in order
+	 */
+	private void recover() throws IOException {
+		List<Long> ids = new ArrayList<Long>();
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				long id = parseSegmentID(name);
+				if (id >= 0) {
+					ids.add(id);
+				}
+			}
+		}
+		Collections.sort(ids);
+
+		synchronized (writeLock) {
+			for (long id : ids) {
+				File f = getSegmentFile(id);
+				Segment s = new Segment(id, f, (int) Math.min(Integer.MAX_VALUE, f.length()));
+				segments.put(id, s);
+				replay(s);
+				active = s;
+			}
+			if (active == null) {
+				roll(0);
+			}
+			logger.debugf("recovered %,d keys from %,d segments in %s", index.size(), segments.size(), dir);
+		}
+	}
+
+	private void replay(Segment s) {
+		ByteBuffer b = s.buffer.duplicate();
+		int pos = 0;
+		while (pos + HEADER_SIZE <= b.capacity() && b.getInt(pos) == MAGIC) {
+			int crc = b.getInt(pos + 4);
+			int keyLength = b.getInt(pos + 8);
+			int valueLength = b.getInt(pos + 12);
+			long timestamp = b.getLong(pos + 16);
+			int length = HEADER_SIZE + keyLength + Math.max(0, valueLength);
+			if (keyLength < 0 || length < 0 || pos + length > b.capacity() || crc != checksum(b, pos, length)) {
+				logger.warnf("truncated or corrupt record in %s at %,d; ignoring rest of segment", s, pos);
+				break;
+			}
+			String key = readKey(b, pos, keyLength);
+			Location loc = new Location(s, pos, keyLength, valueLength, timestamp, compressed);
+			if (valueLength == TOMBSTONE) {
+				kill(index.remove(key));
+				s.deadBytes += length;
+			} else {
+				kill(index.put(key, loc));
+			}
+			pos += length;
+		}
+		s.writePosition = pos;
+	}
+
+	private static byte[] readKeyBytes(ByteBuffer buffer, int offset, int keyLength) {
+		byte[] key = new byte[keyLength];
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset + HEADER_SIZE);
+		b.get(key);
+		return key;
+	}
+
+	private static String readKey(ByteBuffer buffer, int offset, int keyLength) {
+		return new String(readKeyBytes(buffer, offset, keyLength), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * crc of everything in the record after the crc field
+	 */
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset + 8);
+		b.limit(offset + length);
+		CRC32 crc = new CRC32();
+		crc.update(b);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * accounts for a record that's been superseded
+	 */
+	private static void kill(Location old) {
+		if (old != null) {
+			old.segment.deadBytes += old.recordLength();
+		}
+	}
+
+	// must hold writeLock; forces the segment it retires, since nothing will
+	// write to it again
+	private void roll(int minimumSize) throws IOException {
+		if (active != null) {
+			active.buffer.force();
+		}
+		long id = active == null ? 0 : active.id + 1;
+		Segment s = new Segment(id, getSegmentFile(id), Math.max(segmentSize, minimumSize));
+		segments.put(id, s);
+		active = s;
+	}
+
+	// must hold writeLock
+	private Location append(byte[] key, byte[] value, long timestamp) throws IOException {
+		int valueLength = value == null ? TOMBSTONE : value.length;
+		long length = HEADER_SIZE + (long) key.length + (value == null ? 0 : value.length);
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("record too large: " + length);
+		}
+		if (active.writePosition + length > active.capacity()) {
+			roll((int) length);
+		}
+		int pos = active.writePosition;
+		ByteBuffer b = active.buffer.duplicate();
+		b.position(pos + 8);
+		b.putInt(key.length);
+		b.putInt(valueLength);
+		b.putLong(timestamp);
+		b.put(key);
+		if (value != null) {
+			b.put(value);
+		}
+		b.putInt(pos + 4, checksum(b, pos, (int) length));
+		// magic goes last, so a partly written record is never replayed
+		b.putInt(pos, MAGIC);
+		active.writePosition += (int) length;
+		return new Location(active, pos, key.length, valueLength, timestamp, compressed);
+	}
+
+	private byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		ObjectOutputStream out = compressed ? new ObjectOutputStream(new GZIPOutputStream(bout, 65536))
+				: new ObjectOutputStream(new BufferedOutputStream(bout, 65536));
+		try {
+			out.writeObject(o);
+		} finally {
+			out.close();
+		}
+		return bout.toByteArray();
+	}
+
+	/**
+	 * reads the key's record, looking it up again if its segment was
+	 * compacted away after it was found, since the index by then points at
+	 * the copy
+	 */
+	private Object read(String key, Location loc) throws IOException, ClassNotFoundException {
+		while (loc != null) {
+			ByteBuffer mapped = loc.segment.buffer;
+			if (mapped != null) {
+				return loc.readValue(mapped);
+			}
+			loc = index.get(key);
+		}
+		return null;
+	}
+
+	public ICacheEntry getEntry(final String key) {
+		final Location loc = index.get(key);
+		if (loc == null) {
+			return null;
+		}
+		return new ICacheEntry() {
+			public Object getObject() {
+				try {
+					return read(key, loc);
+				} catch (Exception e) {
+					throw new RuntimeException("can't read " + key + " from " + loc.segment, e);
+				}
+			}
+
+			public Date getDateObjectStored() {
+				return loc.getDateObjectStored();
+			}
+
+			public long getStoredSizeEstimate() {
+				return loc.getStoredSizeEstimate();
+			}
+		};
+	}
+
+	public Object getObject(String key) throws Exception {
+		return read(key, index.get(key));
+	}
+
+	public boolean hasObjectForKey(String key) {
+		return index.containsKey(key);
+	}
+
+	public Date getDateObjectStored(String key) {
+		Location loc = index.get(key);
+		return loc == null ? null : loc.getDateObjectStored();
+	}
+
+	public long getStoredSizeEstimate(String key) {
+		Location loc = index.get(key);
+		return loc == null ? 0 : loc.getStoredSizeEstimate();
+	}
+
+	public void storeObject(String key, Object o) throws Exception {
+		storeObject(key, o, new Date());
+	}
+
+	public void storeObject(String key, Object o, Date stored) throws Exception {
+		byte[] value = serialize(o);
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		synchronized (writeLock) {
+			if (closed) {
+				throw new IOException(dir + " is closed");
+			}
+			Location loc = append(k, value, stored.getTime());
+			kill(index.put(key, loc));
+		}
+	}
+
+	public boolean removeObject(String key) {
+		byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		synchronized (writeLock) {
+			if (closed) {
+				return false;
+			}
+			Location old = index.remove(key);
+			if (old != null) {
+				kill(old);
+				try {
+					Location tombstone = append(k, null, System.currentTimeMillis());
+					tombstone.segment.deadBytes += tombstone.recordLength();
+				} catch (IOException e) {
+					logger.warn("can't record removal of %s", e, key);
+					index.putIfAbsent(key, old);
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * weakly consistent, unordered view of the keys
+	 */
+	public Iterator<String> iterator() {
+		return Collections.unmodifiableSet(index.keySet()).iterator();
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * copies the live records of every sealed segment that's mostly dead into
+	 * the active segment, then deletes it
+	 *
+	 * @return number of segments compacted
+	 * @throws IOException
+	 */
+	public int compact() throws IOException {
+		List<Segment> candidates = new ArrayList<Segment>();
+		synchronized (writeLock) {
+			if (closed) {
+				return 0;
+			}
+			for (Segment s : segments.values()) {
+				if (s != active && s.deadBytes >= COMPACTION_THRESHOLD * s.writePosition) {
+					candidates.add(s);
+				}
+			}
+		}
+		for (Segment s : candidates) {
+			compact(s);
+		}
+		return candidates.size();
+	}
+
+	private void compact(Segment s) throws IOException {
+		long copied = 0;
+		int pos = 0;
+		// where copies went, to be forced before the source is deleted
+		Set<Segment> destinations = new LinkedHashSet<Segment>();
+		while (true) {
+			synchronized (writeLock) {
+				if (closed) {
+					return;
+				}
+				if (pos >= s.writePosition) {
+					for (Segment d : destinations) {
+						MappedByteBuffer buffer = d.buffer;
+						if (buffer != null) {
+							buffer.force();
+						}
+					}
+					segments.remove(s.id);
+					s.retire();
+					break;
+				}
+				ByteBuffer b = s.buffer;
+				int keyLength = b.getInt(pos + 8);
+				int valueLength = b.getInt(pos + 12);
+				long timestamp = b.getLong(pos + 16);
+				String key = readKey(b, pos, keyLength);
+				Location current = index.get(key);
+				int length = HEADER_SIZE + keyLength + Math.max(0, valueLength);
+				if (current != null && current.segment == s && current.offset == pos) {
+					// still live, so copy it forward with its original timestamp
+					byte[] k = new byte[keyLength];
+					byte[] value = new byte[valueLength];
+					ByteBuffer d = b.duplicate();
+					d.position(pos + HEADER_SIZE);
+					d.get(k);
+					d.get(value);
+					Location copy = append(k, value, timestamp);
+					index.put(key, copy);
+					destinations.add(copy.segment);
+					copied += length;
+				} else if (valueLength == TOMBSTONE && current == null && segments.firstKey() < s.id) {
+					// an older segment might still hold the removed record
+					Location tombstone = append(readKeyBytes(b, pos, keyLength), null, timestamp);
+					tombstone.segment.deadBytes += tombstone.recordLength();
+					destinations.add(tombstone.segment);
+				}
+				pos += length;
+			}
+		}
+		if (!s.file.delete()) {
+			logger.warnf("can't delete compacted segment %s", s.file);
+		}
+		logger.debugf("compacted %s: copied %,d of %,d bytes", s, copied, s.writePosition);
+	}
+
+	/**
+	 * forces the active segment to disk
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			if (!closed) {
+				active.buffer.force();
+			}
+		}
+	}
+
+	/**
+	 * waits for any store in progress, then forces the active segment to disk
+	 * and drops every mapping; later stores fail, and the cache reads as empty
+	 */
+	public void close() throws IOException {
+		if (compactor != null) {
+			compactor.shutdown();
+		}
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+			active.buffer.force();
+			closed = true;
+			index.clear();
+			for (Segment s : segments.values()) {
+				s.retire();
+			}
+			segments.clear();
+		}
+	}
+
+}